@@ -0,0 +1,291 @@
+/**
+
+  ** CLASSES **
+  ConcurrentFollowerStore is a thread safe version of FollowerStore, for when many threads add follows and read them at the same time.
+  relationships is a ConcurrentHashMap that stores the same FollowerRelationship as FollowerStore for every user ID, putIfAbsent() makes sure each user only gets one.
+  The FollowerRelationships are guarded by an array of StampedLocks (stripes), the stripe of a user is a hash of its ID.
+  FollowerRead is one read of a FollowerRelationship, e.g. copying its followers, which read() runs with an optimistic read of the user's stripe.
+
+  ** LOCKING **
+  addFollower() changes two users, so it takes the write locks of both of their stripes, always the lower stripe first.
+  Every thread takes the locks in the same order, so two threads can never wait for each other and deadlock.
+  Follows between users on other stripes do not wait at all, there are at least 16 stripes for every core so this is most follows.
+  Reads do not take a lock. A StampedLock gives an optimistic stamp that is still valid afterwards if no writer took the stripe in the meantime.
+  If the stamp is no longer valid, or the lists were being changed so the read failed, the read is done again with the read lock of the stripe.
+
+  ** TIME AND MEMORY COMPLEXITY **
+  Every method is the same as FollowerStore, apart from getTopUsers().
+  A single FollowerRanking would need a lock that every follow takes, so getTopUsers() sorts the number of followers of every user instead, O(nlogn).
+  Users with the same number of followers are in the same order as FollowerStore: the user that reached the number first comes first.
+  The memory is the same as FollowerStore plus one StampedLock per stripe, O(n).
+
+  ** REFERENCES **
+  StampedLock and ConcurrentHashMap from java.util.concurrent.
+  Lock striping and ordered lock acquisition from Goetz, "Java Concurrency in Practice", chapters 10 and 11.
+
+ @author: u1500212
+ */
+
+package uk.ac.warwick.java.cs126.services;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+
+public class ConcurrentFollowerStore implements IFollowerStore {
+
+    ConcurrentHashMap<Integer, FollowerRelationship> relationships = new ConcurrentHashMap<Integer, FollowerRelationship>();
+    StampedLock[] stripes;
+    AtomicLong events = new AtomicLong(); // counts new users and followers, for the reached of a FollowerRelationship
+    volatile WriteAheadLog log; // null if there is no log
+
+    public ConcurrentFollowerStore() {
+	this(16 * Runtime.getRuntime().availableProcessors());
+    }
+
+    // the number of stripes is rounded up to a power of two
+    public ConcurrentFollowerStore(int stripeCount) {
+	stripes = new StampedLock[Integer.highestOneBit(Math.max(stripeCount, 2) - 1) << 1];
+	for (int i = 0; i < stripes.length; i++) {
+	    stripes[i] = new StampedLock();
+	}
+    }
+
+    // after setLog() every accepted add is appended to the log before it returns, replay() the log before calling it
+    public void setLog(WriteAheadLog log) {
+	this.log = log;
+    }
+
+    /**
+      addFollower().
+      1) check whether uid1 == uid2, impossible to follow yourself!
+      2) find or create both FollowerRelationships, putIfAbsent() keeps the first one if two threads create one at the same time
+      3) take the write locks of both stripes, lower stripe first
+      4) check whether uid1 is a follower of uid2 already, this has to be done with the locks, otherwise two threads could both add it
+      5) If there is a log, append the follow, the same as FollowerStore it is logged after the check and before the follow can be seen
+      6) Add relationship: (uid1 follows uid2) and (uid2 is followed by uid1)
+      The locks are held while the log waits for its force(), so readers of the two stripes wait for it too, but a follow that a reader has seen is always in the log.
+      If the append throws, nothing was changed and the follow can be added again.
+    */
+
+    // User 1 follows User 2
+    public boolean addFollower(int uid1, int uid2, Date followDate) {
+	if (uid1 == uid2)
+	    return false;
+
+	FollowerRelationship userOne = getOrCreate(uid1);
+	FollowerRelationship userTwo = getOrCreate(uid2);
+
+	int one = stripe(uid1);
+	int two = stripe(uid2);
+	StampedLock first = stripes[Math.min(one, two)];
+	StampedLock second = stripes[Math.max(one, two)];
+	long firstStamp = first.writeLock();
+	long secondStamp = one == two ? 0 : second.writeLock();
+	try {
+	    if (userOne.isAFollower(uid2))
+		return false;
+	    WriteAheadLog wal = log;
+	    if (wal != null)
+		wal.appendFollow(uid1, uid2, followDate);
+	    userOne.addFollows(uid2, followDate);
+	    userTwo.addFollower(uid1, followDate);
+	    userTwo.reached = events.incrementAndGet();
+	} finally {
+	    if (one != two)
+		second.unlockWrite(secondStamp);
+	    first.unlockWrite(firstStamp);
+	}
+	return true;
+    }
+
+    /**
+      The following methods only read, so they use read() with a FollowerRead instead of a lock.
+      Users that do not exist have no followers, so an empty array or 0 is returned instead of throwing a NullPointerException.
+    */
+
+    public int[] getFollowers(int uid) {
+	int[] followers = read(uid, new FollowerRead<int[]>() {
+	    public int[] read(FollowerRelationship user) {
+		return user.getFollowers();
+	    }
+	});
+	return followers == null ? new int[0] : followers;
+    }
+
+    public int[] getFollows(int uid) {
+	int[] follows = read(uid, new FollowerRead<int[]>() {
+	    public int[] read(FollowerRelationship user) {
+		return user.getFollows();
+	    }
+	});
+	return follows == null ? new int[0] : follows;
+    }
+
+    public boolean isAFollower(final int uidFollower, final int uidFollows) {
+	Boolean follows = read(uidFollower, new FollowerRead<Boolean>() {
+	    public Boolean read(FollowerRelationship user) {
+		return user.isAFollower(uidFollows);
+	    }
+	});
+	return follows != null && follows;
+    }
+
+    public int getNumFollowers(int uid) {
+	Integer followers = read(uid, new FollowerRead<Integer>() {
+	    public Integer read(FollowerRelationship user) {
+		return user.getNumberOfFollowers();
+	    }
+	});
+	return followers == null ? 0 : followers;
+    }
+
+    /**
+      getMutualFollowers() and getMutualFollows() copy the list of user 1 with one read, and then check the ids in the set of user 2 with a second read.
+      The two users can be on different stripes, so this is not one snapshot of both users, a follow added in between may or may not be included.
+    */
+
+    public int[] getMutualFollowers(int uid1, int uid2) {
+	final int[] followers = getFollowers(uid1);
+	int[] mutual = read(uid2, new FollowerRead<int[]>() {
+	    public int[] read(FollowerRelationship user) {
+		return keepMutual(followers, user.followerSet);
+	    }
+	});
+	return mutual == null ? new int[0] : mutual;
+    }
+
+    public int[] getMutualFollows(int uid1, int uid2) {
+	final int[] follows = getFollows(uid1);
+	int[] mutual = read(uid2, new FollowerRead<int[]>() {
+	    public int[] read(FollowerRelationship user) {
+		return keepMutual(follows, user.followsSet);
+	    }
+	});
+	return mutual == null ? new int[0] : mutual;
+    }
+
+    // keeps the ids that are also in the set, in the same order
+    // ids is not changed, because a failed optimistic read runs this again
+    private static int[] keepMutual(int[] ids, FollowerIntSet other) {
+	int[] matches = new int[ids.length];
+	int count = 0;
+	for (int i = 0; i < ids.length; i++) {
+	    if (other.contains(ids[i]))
+		matches[count++] = ids[i];
+	}
+	return Arrays.copyOf(matches, count);
+    }
+
+    /**
+      getTopUsers().
+      1) Read the number of followers of every user and when it reached that number, both with one read() so they belong together.
+      2) Sort the users by when they reached their number, and then by the number of followers, most first.
+      DateSort is stable, so users with the same number of followers stay in the order they reached it, like FollowerRanking.
+      3) Copy the IDs of the first k users into an int[].
+    */
+
+    public int[] getTopUsers() {
+	return getTopUsers(Integer.MAX_VALUE);
+    }
+
+    public int[] getTopUsers(int k) {
+	int[] ids = new int[relationships.size()];
+	long[] followers = new long[ids.length];
+	long[] reached = new long[ids.length];
+	int count = 0;
+	for (FollowerRelationship user : relationships.values()) {
+	    long[] state = read(user.getUserId(), new FollowerRead<long[]>() {
+		public long[] read(FollowerRelationship user) {
+		    return new long[] { user.getNumberOfFollowers(), user.reached };
+		}
+	    });
+	    if (count == ids.length) {
+		ids = Arrays.copyOf(ids, 2 * count + 1);
+		followers = Arrays.copyOf(followers, ids.length);
+		reached = Arrays.copyOf(reached, ids.length);
+	    }
+	    ids[count] = user.getUserId();
+	    followers[count] = -state[0];
+	    reached[count] = state[1];
+	    count++;
+	}
+
+	int[] order = new int[count];
+	for (int i = 0; i < count; i++) {
+	    order[i] = i;
+	}
+	DateSort.sort(order, reached, count);
+	DateSort.sort(order, followers, count);
+
+	int[] array = new int[Math.max(0, Math.min(k, count))];
+	for (int i = 0; i < array.length; i++) {
+	    array[i] = ids[order[i]];
+	}
+	return array;
+    }
+
+    /**
+     Additional methods.
+    */
+
+    private FollowerRelationship getOrCreate(int uid) {
+	FollowerRelationship user = relationships.get(uid);
+	if (user == null) {
+	    FollowerRelationship created = new FollowerRelationship(uid);
+	    created.reached = events.incrementAndGet();
+	    user = relationships.putIfAbsent(uid, created);
+	    if (user == null)
+		user = created;
+	}
+	return user;
+    }
+
+    // spreads the bits of the id like IntHashMap, so users with nearby ids are on different stripes
+    private int stripe(int uid) {
+	int h = uid * 0x9E3779B9;
+	return (h ^ (h >>> 16)) & (stripes.length - 1);
+    }
+
+    /**
+      read() runs a FollowerRead on the user with the ID, or returns null if the user does not exist.
+      The optimistic read can see the lists of the user half way through a change, e.g. while a chunk is split.
+      That can throw an exception or give a wrong answer, but either way validate() fails, so the answer is thrown away and read again with the lock.
+    */
+
+    private <T> T read(int uid, FollowerRead<T> read) {
+	FollowerRelationship user = relationships.get(uid);
+	if (user == null)
+	    return null;
+
+	StampedLock lock = stripes[stripe(uid)];
+	long stamp = lock.tryOptimisticRead();
+	if (stamp != 0) {
+	    try {
+		T result = read.read(user);
+		if (lock.validate(stamp))
+		    return result;
+	    } catch (RuntimeException e) {
+		// a writer changed the user while it was read, read it again with the lock
+	    }
+	}
+
+	stamp = lock.readLock();
+	try {
+	    return read.read(user);
+	} finally {
+	    lock.unlockRead(stamp);
+	}
+    }
+}
+
+/**
+  FollowerRead is one read of a FollowerRelationship, passed to ConcurrentFollowerStore.read().
+  read() may be run twice, so it must not change anything.
+*/
+
+abstract class FollowerRead<T> {
+    public abstract T read(FollowerRelationship user);
+}
@@ -0,0 +1,153 @@
+/**
+
+  ** CLASSES **
+  ConcurrentUserStore is a thread safe version of UserStore, for when many threads add and read Users at the same time.
+  It does not use any locks: both indexes are data structures from java.util.concurrent that readers can use while they are being changed.
+  idMap is a ConcurrentHashMap used to store Users using their ID as the key, putIfAbsent() decides which thread adds a User with a duplicate ID.
+  dateIndex is a ConcurrentSkipListMap used to store Users using a ConcurrentUserKey (date and seq) as the key, most recent first.
+  ConcurrentUserKey orders Users the same way as userdateBST in UserStore: most recent first, and the newest added first when dates are equal.
+
+  ** TIME AND MEMORY COMPLEXITY **
+  getUser() is a get() on idMap, which is O(1) on average and never blocks.
+  addUser() puts the User into dateIndex in O(logn) expected time, a skip list only changes a few links with compare and swap, so two signups rarely wait for each other.
+  getUsers() and getUsersJoinedBefore() find their first User in O(logn) and then walk the bottom level of dateIndex, O(logn + k).
+  getUsersContaining() checks every User, O(n), there is no trigram index like UserStore because the posting lists would have to be merged while they change.
+  The memory of ConcurrentUserStore is 2n, the Users stored in idMap and dateIndex, hence O(n).
+
+  ** CONSISTENCY **
+  Readers never wait for a writer, instead they see every index as it is at the moment they read it.
+  addUser() adds a User to idMap first and then to dateIndex, so for a short time getUser() can find a User that getUsers() does not return yet.
+  getUsersJoinedBefore() walks dateIndex while Users are added, every User it returns joined before the date and is in date order.
+  A User who is added during the walk may or may not be returned, but a User whose addUser() had returned before the walk started always is.
+  size is an AtomicInteger, so no signups are lost from the count.
+
+  ** REFERENCES **
+  ConcurrentSkipListMap and ConcurrentHashMap from java.util.concurrent.
+  Skip lists from Pugh, "Skip Lists: A Probabilistic Alternative to Balanced Trees".
+
+ @author: u1500212
+ */
+
+package uk.ac.warwick.java.cs126.services;
+
+import uk.ac.warwick.java.cs126.models.User;
+
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ConcurrentUserStore implements IUserStore {
+
+    ConcurrentHashMap<Integer, User> idMap = new ConcurrentHashMap<Integer, User>();
+    ConcurrentSkipListMap<ConcurrentUserKey, User> dateIndex = new ConcurrentSkipListMap<ConcurrentUserKey, User>();
+    AtomicInteger size = new AtomicInteger();
+    volatile WriteAheadLog log; // null if there is no log
+
+    public ConcurrentUserStore() {
+    }
+
+    // after setLog() every accepted add is appended to the log before it returns, replay() the log before calling it
+    public void setLog(WriteAheadLog log) {
+        this.log = log;
+    }
+
+    /**
+      addUser().
+      1) put the user into idMap with putIfAbsent(), if another user already has the ID return false.
+      2) take the next seq, so users with the same date are ordered the same way as in UserStore.
+      3) put the user into dateIndex.
+      If there is a log, the user is appended to it after step 1, so only the thread that added the ID logs it.
+      If the append fails the ID is removed from idMap again before the error is thrown, so the user is in no index and can be added again.
+    */
+
+    public boolean addUser(User usr) {
+        if (idMap.putIfAbsent(usr.getId(), usr) != null)
+            return false;
+
+        WriteAheadLog wal = log;
+        if (wal != null) {
+            try {
+                wal.appendUser(usr);
+            } catch (RuntimeException e) {
+                idMap.remove(usr.getId(), usr);
+                throw e;
+            }
+        }
+
+        ConcurrentUserKey key = new ConcurrentUserKey(usr.getDateJoined().getTime(), size.incrementAndGet());
+        dateIndex.put(key, usr);
+        return true;
+    }
+
+    public User getUser(int uid) {
+        return idMap.get(uid);
+    }
+
+    /**
+      The following methods walk dateIndex, which is already sorted by date.
+      values() of a ConcurrentSkipListMap can be read while other threads add Users, so no lock is taken.
+    */
+
+    public User[] getUsers() {
+        return dateIndex.values().toArray(new User[0]);
+    }
+
+    public User[] getUsersContaining(String query) {
+        User[] array = new User[16];
+        int count = 0;
+        for (User user : dateIndex.values()) {
+            if (user.getName().contains(query)) {
+                if (count == array.length)
+                    array = resize(array, 2 * count);
+                array[count++] = user;
+            }
+        }
+        return resize(array, count);
+    }
+
+    // every seq is at least 1, so the key with seq MIN_VALUE comes after every User who joined on the date
+    public User[] getUsersJoinedBefore(Date dateBefore) {
+        return dateIndex.tailMap(new ConcurrentUserKey(dateBefore.getTime(), Integer.MIN_VALUE), false).values().toArray(new User[0]);
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     Additional methods.
+    */
+
+    // copies the first Users of array into a new array of the given length
+    private static User[] resize(User[] array, int length) {
+        if (array.length == length)
+            return array;
+        User[] newArray = new User[length];
+        System.arraycopy(array, 0, newArray, 0, Math.min(array.length, length));
+        return newArray;
+    }
+}
+
+/**
+  ConcurrentUserKey is the key of dateIndex, the date a User joined as milliseconds and the order it was added (seq).
+  compareTo() puts the most recent date first and the highest seq first, the same as an in-order traversal of userdateBST.
+*/
+
+class ConcurrentUserKey implements Comparable<ConcurrentUserKey> {
+    private long date;
+    private int seq;
+
+    public ConcurrentUserKey(long date, int seq) {
+	this.date = date;
+	this.seq = seq;
+    }
+
+    public int compareTo(ConcurrentUserKey that) {
+	if (date != that.date)
+	    return date > that.date ? -1 : 1;
+	if (seq != that.seq)
+	    return seq > that.seq ? -1 : 1;
+	return 0;
+    }
+}
@@ -0,0 +1,303 @@
+/**
+
+  ** CLASSES **
+  ConcurrentWeetStore is a thread safe version of WeetStore, for when many threads add and read Weets at the same time.
+  It does not use any locks: every index is a data structure from java.util.concurrent that readers can use while it is being changed.
+  idMap is a ConcurrentHashMap used to store Weets using their ID as the key, putIfAbsent() decides which thread adds a Weet with a duplicate ID.
+  dateIndex is a ConcurrentSkipListMap used to store Weets using a ConcurrentWeetKey (date and seq) as the key, most recent first.
+  userIndex stores a ConcurrentSkipListMap like dateIndex for every user, using the user ID as the key.
+  trendingCounts stores a LongAdder for every #trend, a LongAdder is a counter split into cells so threads mentioning the same #trend do not wait for each other.
+  ConcurrentWeetKey orders Weets the same way as dateBST in WeetStore: most recent first, and the newest added first when dates are equal.
+
+  ** TIME AND MEMORY COMPLEXITY **
+  getWeet() is a get() on idMap, which is O(1) on average and never blocks.
+  addWeet() puts the Weet into dateIndex and userIndex in O(logn) expected time, a skip list only changes a few links with compare and swap, so writers only contend on the nodes they change.
+  getWeets(), getWeetsOn() and getWeetsBefore() find their first Weet in O(logn) and then walk the bottom level of dateIndex, O(logn + k).
+  getWeetsByUser() walks the user's skip list, O(k) where k is the number of Weets written by that user.
+  getWeetsContaining() checks every Weet, O(n), there is no token index like WeetStore because the posting lists would have to be merged while they change.
+  getTrending() reads every LongAdder and keeps the 10 highest counts in a sorted array, O(m) where m is the number of #trends.
+  The memory of ConcurrentWeetStore is 3n+m where 3n is the number of Weets stored in idMap, dateIndex and userIndex and m is the number of #trends, hence O(n).
+
+  ** CONSISTENCY **
+  Readers never wait for a writer, instead they see every index as it is at the moment they read it.
+  addWeet() adds a Weet to idMap first and then to the other indexes, so for a short time getWeet() can find a Weet that getWeets() does not return yet.
+  An array returned by a method is a snapshot, it does not change when Weets are added afterwards.
+  getTrending() orders #trends with the same count alphabetically, because the counts of different #trends are not changed in one order like TrendingRanking.
+
+  ** REFERENCES **
+  ConcurrentSkipListMap, ConcurrentHashMap and LongAdder from java.util.concurrent.
+  Skip lists from Pugh, "Skip Lists: A Probabilistic Alternative to Balanced Trees".
+
+ @author: u1500212
+ */
+
+package uk.ac.warwick.java.cs126.services;
+
+import uk.ac.warwick.java.cs126.models.User;
+import uk.ac.warwick.java.cs126.models.Weet;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+public class ConcurrentWeetStore implements IWeetStore {
+
+    ConcurrentHashMap<Integer, Weet> idMap = new ConcurrentHashMap<Integer, Weet>();
+    ConcurrentSkipListMap<ConcurrentWeetKey, Weet> dateIndex = new ConcurrentSkipListMap<ConcurrentWeetKey, Weet>();
+    ConcurrentHashMap<Integer, ConcurrentSkipListMap<ConcurrentWeetKey, Weet>> userIndex = new ConcurrentHashMap<Integer, ConcurrentSkipListMap<ConcurrentWeetKey, Weet>>();
+    ConcurrentHashMap<String, LongAdder> trendingCounts = new ConcurrentHashMap<String, LongAdder>();
+    AtomicInteger size = new AtomicInteger();
+    volatile WriteAheadLog log; // null if there is no log
+
+    public ConcurrentWeetStore() {
+    }
+
+    // after setLog() every accepted add is appended to the log before it returns, replay() the log before calling it
+    public void setLog(WriteAheadLog log) {
+	this.log = log;
+    }
+
+    /**
+     addWeet()
+     1) Put the Weet into idMap with putIfAbsent(), if another Weet already has the ID return false.
+     2) Take the next seq, so Weets with the same date are ordered the same way as in WeetStore.
+     3) Put the Weet into dateIndex and the user's skip list, create the skip list if this is the first Weet of the user.
+     4) Find every #trend in the message and add one to its LongAdder.
+     If there is a log, the Weet is appended to it after step 1, so only the thread that added the ID logs it.
+     If the append fails the ID is removed from idMap again before the error is thrown, so the Weet is in no index and can be added again.
+    */
+
+    public boolean addWeet(Weet weet) {
+	if (idMap.putIfAbsent(weet.getId(), weet) != null)
+	    return false;
+
+	// the log waits for a force() that covers the Weets of every thread appending at the same time
+	WriteAheadLog wal = log;
+	if (wal != null) {
+	    try {
+		wal.appendWeet(weet);
+	    } catch (RuntimeException e) {
+		idMap.remove(weet.getId(), weet);
+		throw e;
+	    }
+	}
+
+	ConcurrentWeetKey key = new ConcurrentWeetKey(weet.getDateWeeted().getTime(), size.incrementAndGet());
+	dateIndex.put(key, weet);
+
+	// if two threads create the first skip list of a user at the same time, putIfAbsent() keeps only one
+	ConcurrentSkipListMap<ConcurrentWeetKey, Weet> userWeets = userIndex.get(weet.getUserId());
+	if (userWeets == null) {
+	    ConcurrentSkipListMap<ConcurrentWeetKey, Weet> created = new ConcurrentSkipListMap<ConcurrentWeetKey, Weet>();
+	    userWeets = userIndex.putIfAbsent(weet.getUserId(), created);
+	    if (userWeets == null)
+		userWeets = created;
+	}
+	userWeets.put(key, weet);
+
+	// a HashtagScanner is cheap, so every call has its own instead of sharing one between threads
+	HashtagScanner scanner = new HashtagScanner();
+	scanner.reset(weet.getMessage());
+	while (scanner.next()) {
+	    String hashtag = scanner.hashtag();
+	    LongAdder count = trendingCounts.get(hashtag);
+	    if (count == null) {
+		LongAdder created = new LongAdder();
+		count = trendingCounts.putIfAbsent(hashtag, created);
+		if (count == null)
+		    count = created;
+	    }
+	    count.increment();
+	}
+	return true;
+    }
+
+    public Weet getWeet(int wid) {
+        return idMap.get(wid);
+    }
+
+    /**
+      The following methods walk dateIndex or a user's skip list, which are already sorted by date.
+      values() of a ConcurrentSkipListMap can be read while other threads add Weets, so no lock is taken.
+    */
+
+    public Weet[] getWeets() {
+        return dateIndex.values().toArray(new Weet[0]);
+    }
+
+    public Weet[] getWeetsByUser(User usr) {
+        ConcurrentSkipListMap<ConcurrentWeetKey, Weet> userWeets = userIndex.get(usr.getId());
+        if (userWeets == null)
+            return new Weet[0];
+        return userWeets.values().toArray(new Weet[0]);
+    }
+
+    public Weet[] getWeetsContaining(String query) {
+        Weet[] array = new Weet[16];
+        int count = 0;
+        for (Weet weet : dateIndex.values()) {
+            if (weet.getMessage().contains(query)) {
+                if (count == array.length)
+                    array = resize(array, 2 * count);
+                array[count++] = weet;
+            }
+        }
+        return resize(array, count);
+    }
+
+    // every seq is at least 1, so the keys with seq MAX_VALUE and MIN_VALUE come before and after every Weet of that date
+    public Weet[] getWeetsOn(Date dateOn) {
+        long date = dateOn.getTime();
+        return dateIndex.subMap(new ConcurrentWeetKey(date, Integer.MAX_VALUE), true, new ConcurrentWeetKey(date, Integer.MIN_VALUE), true).values().toArray(new Weet[0]);
+    }
+
+    public Weet[] getWeetsBefore(Date dateBefore) {
+        return dateIndex.tailMap(new ConcurrentWeetKey(dateBefore.getTime(), Integer.MIN_VALUE), false).values().toArray(new Weet[0]);
+    }
+
+    // one page of a timeline, the same as WeetStore.getWeetsBefore(Date, int), O(logn + limit)
+    public Weet[] getWeetsBefore(Date before, int limit) {
+        return firstValues(dateIndex.tailMap(new ConcurrentWeetKey(before.getTime(), Integer.MIN_VALUE), false), limit);
+    }
+
+    // the page after the Weet afterId with the date before, the same as WeetStore.getWeetsBefore(Date, int, int)
+    public Weet[] getWeetsBefore(Date before, int afterId, int limit) {
+        return firstValues(dateIndex.tailMap(keyAfter(dateIndex, before.getTime(), afterId), false), limit);
+    }
+
+    public Weet[] getWeetsByUser(User usr, Date before, int limit) {
+        ConcurrentSkipListMap<ConcurrentWeetKey, Weet> userWeets = userIndex.get(usr.getId());
+        if (userWeets == null)
+            return new Weet[0];
+        return firstValues(userWeets.tailMap(new ConcurrentWeetKey(before.getTime(), Integer.MIN_VALUE), false), limit);
+    }
+
+    public Weet[] getWeetsByUser(User usr, Date before, int afterId, int limit) {
+        ConcurrentSkipListMap<ConcurrentWeetKey, Weet> userWeets = userIndex.get(usr.getId());
+        if (userWeets == null)
+            return new Weet[0];
+        return firstValues(userWeets.tailMap(keyAfter(userWeets, before.getTime(), afterId), false), limit);
+    }
+
+    // the key of the Weet afterId among the Weets with the date, or the key after every one of them if it is not there, O(logn + t)
+    private static ConcurrentWeetKey keyAfter(ConcurrentSkipListMap<ConcurrentWeetKey, Weet> map, long date, int afterId) {
+        for (Map.Entry<ConcurrentWeetKey, Weet> entry : map.subMap(new ConcurrentWeetKey(date, Integer.MAX_VALUE), true, new ConcurrentWeetKey(date, Integer.MIN_VALUE), true).entrySet()) {
+            if (entry.getValue().getId() == afterId)
+                return entry.getKey();
+        }
+        return new ConcurrentWeetKey(date, Integer.MIN_VALUE);
+    }
+
+    /**
+      getTrending()
+      1) Read the count of every #trend from trendingCounts, sum() adds up the cells of a LongAdder.
+      2) Keep the k highest counts in a sorted array, using binary search and a shift, ties in alphabetical order.
+      3) Return an array of String, which is shorter than 10 if there are less than 10 topics.
+    */
+
+    public String[] getTrending() {
+        return getTrending(10);
+    }
+
+    public String[] getTrending(int k) {
+        String[] best = new String[Math.max(k, 0)];
+        long[] bestCounts = new long[best.length];
+        int count = 0;
+
+        for (Map.Entry<String, LongAdder> entry : trendingCounts.entrySet()) {
+            if (best.length == 0)
+                break;
+            String topic = entry.getKey();
+            long mentions = entry.getValue().sum();
+            if (count == best.length && compare(mentions, topic, bestCounts[count - 1], best[count - 1]) >= 0)
+                continue;
+
+            // find the position after every topic that comes first
+            int low = 0, high = count;
+            while (low < high) {
+                int middle = low + (high - low)/2;
+                if (compare(bestCounts[middle], best[middle], mentions, topic) < 0)
+                    low = middle + 1;
+                else
+                    high = middle;
+            }
+
+            // shift the later topics down by one, dropping the last one if full
+            int move = Math.min(count, best.length - 1) - low;
+            System.arraycopy(best, low, best, low + 1, move);
+            System.arraycopy(bestCounts, low, bestCounts, low + 1, move);
+            best[low] = topic;
+            bestCounts[low] = mentions;
+            if (count < best.length)
+                count++;
+        }
+
+        String[] array = new String[count];
+        System.arraycopy(best, 0, array, 0, count);
+        return array;
+    }
+
+    // orders topics by most mentions first, then alphabetically
+    private static int compare(long countA, String topicA, long countB, String topicB) {
+        if (countA != countB)
+            return countA > countB ? -1 : 1;
+        return topicA.compareTo(topicB);
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     Additional methods.
+    */
+
+    // copies at most limit Weets of a skip list into an array, stopping early instead of copying the whole map
+    private static Weet[] firstValues(Map<ConcurrentWeetKey, Weet> map, int limit) {
+        Weet[] array = new Weet[Math.max(Math.min(limit, 1024), 0)];
+        int count = 0;
+        for (Weet weet : map.values()) {
+            if (count >= limit)
+                break;
+            if (count == array.length)
+                array = resize(array, 2 * count);
+            array[count++] = weet;
+        }
+        return resize(array, count);
+    }
+
+    // copies the first Weets of array into a new array of the given length
+    private static Weet[] resize(Weet[] array, int length) {
+        if (array.length == length)
+            return array;
+        Weet[] newArray = new Weet[length];
+        System.arraycopy(array, 0, newArray, 0, Math.min(array.length, length));
+        return newArray;
+    }
+}
+
+/**
+  ConcurrentWeetKey is the key of dateIndex, the date of a Weet as milliseconds and the order it was added (seq).
+  compareTo() puts the most recent date first and the highest seq first, the same as an in-order traversal of dateBST.
+*/
+
+class ConcurrentWeetKey implements Comparable<ConcurrentWeetKey> {
+    private long date;
+    private int seq;
+
+    public ConcurrentWeetKey(long date, int seq) {
+	this.date = date;
+	this.seq = seq;
+    }
+
+    public int compareTo(ConcurrentWeetKey that) {
+	if (date != that.date)
+	    return date > that.date ? -1 : 1;
+	if (seq != that.seq)
+	    return seq > that.seq ? -1 : 1;
+	return 0;
+    }
+}
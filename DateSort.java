@@ -0,0 +1,41 @@
+/**
+  DateSort sorts positions by their dates, used by bulkLoad() and addWeets() in WeetStore, UserStore and FollowerStore.
+  The dates can be any long, FollowerStore.bulkLoad() also uses it to sort follows by their pair of ids.
+  It is a stable merge sort of an int[] of positions into a long[] of dates, so objects with the same date keep the order they were given in, and no Date or Integer is created.
+  If the two halves of a merge are already in order the merge is skipped, so input that is already sorted only takes O(n), otherwise O(nlogn).
+
+  ** REFERENCES **
+  Merge sort based on http://algs4.cs.princeton.edu/22mergesort/Merge.java.html
+
+ @author: u1500212
+ */
+
+package uk.ac.warwick.java.cs126.services;
+
+class DateSort {
+
+    // sorts the first count positions of order by dates[order[i]], oldest first
+    public static void sort(int[] order, long[] dates, int count) {
+	sort(order, new int[count], dates, 0, count - 1);
+    }
+
+    // sorts order[lo..hi], aux has at least hi + 1 entries
+    private static void sort(int[] order, int[] aux, long[] dates, int lo, int hi) {
+	if (hi <= lo)
+	    return;
+	int mid = lo + (hi - lo)/2;
+	sort(order, aux, dates, lo, mid);
+	sort(order, aux, dates, mid + 1, hi);
+	if (dates[order[mid]] <= dates[order[mid + 1]])
+	    return;
+	
+	System.arraycopy(order, lo, aux, lo, hi - lo + 1);
+	int i = lo, j = mid + 1;
+	for (int k = lo; k <= hi; k++) {
+	    if (i > mid)                                order[k] = aux[j++];
+	    else if (j > hi)                            order[k] = aux[i++];
+	    else if (dates[aux[j]] < dates[aux[i]])     order[k] = aux[j++];
+	    else                                        order[k] = aux[i++];
+	}
+    }
+}
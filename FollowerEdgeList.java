@@ -0,0 +1,209 @@
+/**
+  FollowerEdgeList stores the followers or follows of a user, sorted by date.
+  getFollowers() and getFollows() return them most recent first, so the most recent follow added comes first on the same date.
+  
+  The follows are stored oldest first in chunks, every chunk is a sorted array of at most CHUNK entries.
+  Each chunk is stored as two parallel arrays, an int[] of ids and a long[] of dates in milliseconds.
+  This means a follow costs 12 bytes instead of 4 objects (a list element, a key value pair, an Integer and a Date).
+  Adding a follow first uses a binary search over the last date of every chunk to find the chunk, O(log(d/CHUNK)).
+  A binary search within the chunk finds the position, O(logCHUNK), and the newer entries of that chunk are shifted up.
+  A full chunk is split into two halves, so adding a follow never shifts more than one chunk of entries.
+  Follows usually arrive in date order, which only appends to the last chunk, and a new chunk is started when it is full.
+  Historical follows that arrive out of order, e.g. from a backfill, take O(logd) to find their position instead of walking a linked list.
+
+ @author: u1500212
+ */
+
+package uk.ac.warwick.java.cs126.services;
+
+class FollowerEdgeList {
+    private static final int CHUNK = 256; // maximum number of entries in a chunk
+    
+    private int[][] ids = new int[1][];
+    private long[][] dates = new long[1][];
+    private int[] sizes = new int[1]; // number of entries in each chunk
+    private int chunkCount; // number of chunks in use
+    private int n; // number of entries
+    
+    public void add(int id, long date) {
+	if (chunkCount == 0)
+	    insertChunk(0, 4);
+	
+	// the first chunk with an entry newer than date, or the last chunk if there is none
+	int c = chunkCount - 1;
+	if (sizes[c] > 0 && lastDate(c) > date)
+	    c = findChunk(date);
+	
+	// the first entry in the chunk newer than date
+	int position = upperBound(dates[c], sizes[c], date);
+	
+	if (sizes[c] == CHUNK) {
+	    if (c == chunkCount - 1 && position == CHUNK) {
+		// appending to a full last chunk, start a new chunk
+		insertChunk(chunkCount, 4);
+		c++;
+		position = 0;
+	    } else {
+		// split the full chunk into two halves
+		splitChunk(c);
+		if (position > sizes[c]) {
+		    position -= sizes[c];
+		    c++;
+		}
+	    }
+	}
+	
+	// double the chunk when its arrays are full, up to CHUNK
+	if (sizes[c] == ids[c].length)
+	    resizeChunk(c, Math.min(2 * sizes[c], CHUNK));
+	
+	// shift the newer entries of the chunk up by one
+	int[] chunkIds = ids[c];
+	long[] chunkDates = dates[c];
+	System.arraycopy(chunkIds, position, chunkIds, position + 1, sizes[c] - position);
+	System.arraycopy(chunkDates, position, chunkDates, position + 1, sizes[c] - position);
+	chunkIds[position] = id;
+	chunkDates[position] = date;
+	sizes[c]++;
+	n++;
+    }
+    
+    public int size() {
+	return n;
+    }
+    
+    // copy the ids into an array, most recent first
+    public int[] toArray() {
+	int[] array = new int[n];
+	int i = 0;
+	for (int c = chunkCount - 1; c >= 0; c--) {
+	    int[] chunkIds = ids[c];
+	    for (int j = sizes[c] - 1; j >= 0; j--) {
+		array[i++] = chunkIds[j];
+	    }
+	}
+	return array;
+    }
+    
+    // copy the ids and dates into two arrays of length size(), oldest first
+    public void copyOldestFirst(int[] idArray, long[] dateArray) {
+	int i = 0;
+	for (int c = 0; c < chunkCount; c++) {
+	    System.arraycopy(ids[c], 0, idArray, i, sizes[c]);
+	    System.arraycopy(dates[c], 0, dateArray, i, sizes[c]);
+	    i += sizes[c];
+	}
+    }
+    
+    private long lastDate(int c) {
+	return dates[c][sizes[c] - 1];
+    }
+    
+    // the number of entries with the same date before the entry of id, which has to be in the list, O(logd + t) where t is the number of entries with the date
+    public int rank(int id, long date) {
+	// the first chunk whose last entry is not older than date
+	int low = 0, high = chunkCount - 1;
+	while (low < high) {
+	    int middle = low + (high - low)/2;
+	    if (lastDate(middle) < date)
+		low = middle + 1;
+	    else
+		high = middle;
+	}
+	
+	int rank = 0;
+	for (int c = low; c < chunkCount; c++) {
+	    int j = lowerBound(dates[c], sizes[c], date);
+	    for (; j < sizes[c] && dates[c][j] == date; j++) {
+		if (ids[c][j] == id)
+		    return rank;
+		rank++;
+	    }
+	    // a newer entry, so the rest of the list is newer too
+	    if (j < sizes[c])
+		break;
+	}
+	throw new IllegalStateException(id + " is not in the list with date " + date);
+    }
+    
+    // binary search for the first chunk whose last entry is newer than date
+    private int findChunk(long date) {
+	int low = 0, high = chunkCount - 1;
+	while (low < high) {
+	    int middle = low + (high - low)/2;
+	    if (lastDate(middle) <= date)
+		low = middle + 1;
+	    else
+		high = middle;
+	}
+	return low;
+    }
+    
+    // binary search for the first entry of a chunk that is not older than date
+    private static int lowerBound(long[] chunkDates, int size, long date) {
+	int low = 0, high = size;
+	while (low < high) {
+	    int middle = low + (high - low)/2;
+	    if (chunkDates[middle] < date)
+		low = middle + 1;
+	    else
+		high = middle;
+	}
+	return low;
+    }
+    
+    // binary search for the first entry of a chunk that is newer than date
+    private static int upperBound(long[] chunkDates, int size, long date) {
+	int low = 0, high = size;
+	while (low < high) {
+	    int middle = low + (high - low)/2;
+	    if (chunkDates[middle] <= date)
+		low = middle + 1;
+	    else
+		high = middle;
+	}
+	return low;
+    }
+    
+    // inserts a new empty chunk at index c, doubling the chunk arrays if they are full
+    private void insertChunk(int c, int capacity) {
+	if (chunkCount == ids.length) {
+	    int[][] newIds = new int[2 * chunkCount][];
+	    long[][] newDates = new long[2 * chunkCount][];
+	    int[] newSizes = new int[2 * chunkCount];
+	    System.arraycopy(ids, 0, newIds, 0, chunkCount);
+	    System.arraycopy(dates, 0, newDates, 0, chunkCount);
+	    System.arraycopy(sizes, 0, newSizes, 0, chunkCount);
+	    ids = newIds;
+	    dates = newDates;
+	    sizes = newSizes;
+	}
+	System.arraycopy(ids, c, ids, c + 1, chunkCount - c);
+	System.arraycopy(dates, c, dates, c + 1, chunkCount - c);
+	System.arraycopy(sizes, c, sizes, c + 1, chunkCount - c);
+	ids[c] = new int[capacity];
+	dates[c] = new long[capacity];
+	sizes[c] = 0;
+	chunkCount++;
+    }
+    
+    private void resizeChunk(int c, int capacity) {
+	int[] newIds = new int[capacity];
+	long[] newDates = new long[capacity];
+	System.arraycopy(ids[c], 0, newIds, 0, sizes[c]);
+	System.arraycopy(dates[c], 0, newDates, 0, sizes[c]);
+	ids[c] = newIds;
+	dates[c] = newDates;
+    }
+    
+    // moves the newer half of chunk c into a new chunk after it
+    private void splitChunk(int c) {
+	int half = sizes[c] / 2;
+	int moved = sizes[c] - half;
+	insertChunk(c + 1, CHUNK);
+	System.arraycopy(ids[c], half, ids[c + 1], 0, moved);
+	System.arraycopy(dates[c], half, dates[c + 1], 0, moved);
+	sizes[c + 1] = moved;
+	sizes[c] = half;
+    }
+}
@@ -0,0 +1,76 @@
+/**
+  FollowerIntSet is a hash set of int ids, used by FollowerRelationship for O(1) isAFollower().
+  It uses open addressing with linear probing in an int[], so ids are not boxed and a lookup does not allocate.
+  0 marks an empty slot, so whether the id 0 is in the set is stored separately.
+  The array is doubled when it is half full, which keeps the probes short.
+
+ @author: u1500212
+ */
+
+package uk.ac.warwick.java.cs126.services;
+
+class FollowerIntSet {
+    private int[] table = new int[8]; // length is always a power of two
+    private int n; // number of ids in the table
+    private boolean containsZero;
+    
+    public boolean contains(int id) {
+	if (id == 0)
+	    return containsZero;
+	int mask = table.length - 1;
+	for (int i = hash(id) & mask; table[i] != 0; i = (i + 1) & mask) {
+	    if (table[i] == id)
+		return true;
+	}
+	return false;
+    }
+    
+    // returns false if the id was already in the set
+    public boolean add(int id) {
+	if (id == 0) {
+	    if (containsZero)
+		return false;
+	    containsZero = true;
+	    return true;
+	}
+	
+	int mask = table.length - 1;
+	int i = hash(id) & mask;
+	while (table[i] != 0) {
+	    if (table[i] == id)
+		return false;
+	    i = (i + 1) & mask;
+	}
+	table[i] = id;
+	n++;
+	
+	// double the table when it is half full
+	if (2 * n > table.length)
+	    resize(2 * table.length);
+	return true;
+    }
+    
+    public int size() {
+	return containsZero ? n + 1 : n;
+    }
+    
+    private void resize(int capacity) {
+	int[] old = table;
+	table = new int[capacity];
+	int mask = capacity - 1;
+	for (int j = 0; j < old.length; j++) {
+	    if (old[j] != 0) {
+		int i = hash(old[j]) & mask;
+		while (table[i] != 0)
+		    i = (i + 1) & mask;
+		table[i] = old[j];
+	    }
+	}
+    }
+    
+    // spreads the bits of the id, so ids that only differ in the high bits do not collide
+    private static int hash(int id) {
+	int h = id * 0x9E3779B9;
+	return h ^ (h >>> 16);
+    }
+}
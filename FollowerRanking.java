@@ -0,0 +1,93 @@
+/**
+  FollowerRanking keeps the FollowerRelationships sorted by number of followers, for getTopUsers().
+  Every FollowerRankingBucket holds a linked list of the users with the same number of followers.
+  The buckets form a linked list from the most followers to the least, and only non-empty buckets are kept.
+  A new follower moves a user to the bucket above, which is the next bucket or a new one, so it is O(1).
+  Within a bucket users are kept in the order they reached it, so a user that reached a number of followers first ranks first.
+
+ @author: u1500212
+ */
+
+package uk.ac.warwick.java.cs126.services;
+
+class FollowerRanking {
+    private FollowerRankingBucket highest; // bucket with the most followers
+    private FollowerRankingBucket lowest; // bucket with the least followers
+    private int size; // number of users
+    
+    // adds a user that has just been created
+    public void add(FollowerRelationship user) {
+	int followers = user.getNumberOfFollowers();
+	FollowerRankingBucket bucket = lowest;
+	if (bucket == null || bucket.followers != followers)
+	    bucket = insertBucket(followers, null, lowest);
+	bucket.append(user);
+	size++;
+    }
+    
+    // moves a user up one bucket, after its number of followers went up by one
+    public void increment(FollowerRelationship user) {
+	FollowerRankingBucket from = user.bucket;
+	int followers = from.followers + 1;
+	
+	// the bucket above has to be exactly one higher, otherwise create it
+	FollowerRankingBucket to = from.higher;
+	if (to == null || to.followers != followers)
+	    to = insertBucket(followers, from, from.higher);
+	
+	from.remove(user);
+	if (from.first == null)
+	    removeBucket(from);
+	to.append(user);
+    }
+    
+    // returns the ids of the k users with the most followers, O(k)
+    public int[] top(int k) {
+	int[] array = new int[Math.max(0, Math.min(k, size))];
+	int count = 0;
+	for (FollowerRankingBucket bucket = highest; bucket != null && count < array.length; bucket = bucket.lower) {
+	    for (FollowerRelationship user = bucket.first; user != null && count < array.length; user = user.next) {
+		array[count++] = user.getUserId();
+	    }
+	}
+	return array;
+    }
+    
+    public int size() {
+	return size;
+    }
+    
+    // replaces the ranking with users in the given order, which has to be most followers first, e.g. after a store is loaded
+    public void restore(FollowerRelationship[] users) {
+	highest = null;
+	lowest = null;
+	size = 0;
+	for (FollowerRelationship user : users) {
+	    int followers = user.getNumberOfFollowers();
+	    FollowerRankingBucket bucket = lowest;
+	    if (bucket == null || bucket.followers != followers)
+		bucket = insertBucket(followers, null, lowest);
+	    bucket.append(user);
+	    size++;
+	}
+    }
+    
+    // creates an empty bucket between lower and higher
+    private FollowerRankingBucket insertBucket(int followers, FollowerRankingBucket lower, FollowerRankingBucket higher) {
+	FollowerRankingBucket bucket = new FollowerRankingBucket(followers);
+	bucket.lower = lower;
+	bucket.higher = higher;
+	if (lower == null) lowest = bucket;
+	else               lower.higher = bucket;
+	if (higher == null) highest = bucket;
+	else                higher.lower = bucket;
+	return bucket;
+    }
+    
+    private void removeBucket(FollowerRankingBucket bucket) {
+	if (bucket.lower == null) lowest = bucket.higher;
+	else                      bucket.lower.higher = bucket.higher;
+	if (bucket.higher == null) highest = bucket.lower;
+	else                       bucket.higher.lower = bucket.lower;
+    }
+}
@@ -0,0 +1,39 @@
+/**
+  FollowerRankingBucket is one bucket of FollowerRanking, a linked list of the users with the same number of followers.
+  It is linked to the buckets with the next higher and lower number of followers that have any users.
+
+ @author: u1500212
+ */
+
+package uk.ac.warwick.java.cs126.services;
+
+class FollowerRankingBucket {
+    int followers;
+    FollowerRelationship first, last; // linked list of users
+    FollowerRankingBucket higher, lower; // neighbouring buckets
+    
+    public FollowerRankingBucket(int followers) {
+	this.followers = followers;
+    }
+    
+    // add a user at the end of the bucket
+    public void append(FollowerRelationship user) {
+	user.bucket = this;
+	user.previous = last;
+	user.next = null;
+	if (last == null) first = user;
+	else              last.next = user;
+	last = user;
+    }
+    
+    // unlink a user from the bucket
+    public void remove(FollowerRelationship user) {
+	if (user.previous == null) first = user.next;
+	else                       user.previous.next = user.next;
+	if (user.next == null) last = user.previous;
+	else                   user.next.previous = user.previous;
+	user.previous = null;
+	user.next = null;
+	user.bucket = null;
+    }
+}
@@ -0,0 +1,80 @@
+/**
+    followerMap stores a FollowerRelationship for every user, using the id as the key.
+    It stores 2 FollowerEdgeLists.
+    addFollower() and addFollows() adds relationships and stores them automatically by dates.
+    getFollowers() and getFollows() retrieve everything from a FollowerEdgeList.
+    isAFollower() uses followsSet instead, a hash set with the same ids as the follows FollowerEdgeList.
+    ConcurrentFollowerStore and MappedFollowerStore use the same class.
+
+ @author: u1500212
+ */
+
+package uk.ac.warwick.java.cs126.services;
+
+import java.util.Date;
+
+class FollowerRelationship {
+    // store userid and number of followers/follows
+    int userid;
+    int numberOfFollowers;
+    int numberOfFollows;
+    // lists sorted by date
+    FollowerEdgeList follower = new FollowerEdgeList();
+    FollowerEdgeList follows = new FollowerEdgeList();
+    // the same ids in hash sets, for O(1) isAFollower()
+    FollowerIntSet followerSet = new FollowerIntSet();
+    FollowerIntSet followsSet = new FollowerIntSet();
+    // position in FollowerRanking
+    FollowerRankingBucket bucket;
+    FollowerRelationship previous, next;
+    // ConcurrentFollowerStore has no FollowerRanking, it counts when the user reached its number of followers instead
+    long reached;
+    
+    public FollowerRelationship(int userid) {
+	this.userid = userid;
+	numberOfFollowers = 0;
+	numberOfFollows = 0;
+    }
+    
+    public void addFollower(int followerid, Date date) {
+	follower.add(followerid, date.getTime());
+	followerSet.add(followerid);
+	numberOfFollowers++;
+    }
+    
+    public void addFollows(int followsid, Date date) {
+	follows.add(followsid, date.getTime());
+	followsSet.add(followsid);
+	numberOfFollows++;
+    }
+    
+    // standard get method
+    public int getUserId() {
+	return this.userid; 
+    }
+    
+    public int[] getFollowers() {
+	return follower.toArray();
+    }
+    
+    public int[] getFollows() {
+	return follows.toArray();
+    }
+    
+    public boolean isAFollower(int followsid) {
+	// finds out whether this.userid follows followsid
+	// hash lookup, no need to copy or search the list
+	return followsSet.contains(followsid);
+    }
+    
+    /**
+    * standard get methods
+    */
+    public int getNumberOfFollowers() {
+	return numberOfFollowers;
+    }
+    
+    public int getNumberOfFollows() {
+	return numberOfFollows;
+    }
+}
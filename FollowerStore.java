@@ -1,41 +1,45 @@
 /**
 
   ** CLASSES **
-  FollowerStore is implemented using a left leaning Red Black Binary Search Tree: followerBST. 
-  followerBST stores a class called FollowerRelationship.
-  FollowerRelationship stores 2 "Self-Sorting" LinkedLists called follower and follows with the UserID as the key for insetion/retrieval.
-  KeyValuePair is a class used to help implement the LinkedList.
-  ListElement is a class where it contains a KeyValuePair and another ListElement to point to.
-  KeyValuePairTopusers is an additional class used for specific methods such as getTopUsers()
-  SortedList is an additional class that is a Linked List that is sorts itself by ascending order.
+  FollowerStore is implemented using a hash table: followerMap.
+  followerMap is an IntHashMap that stores a class called FollowerRelationship for every user ID.
+  FollowerRelationship stores 2 sorted FollowerEdgeLists called follower and follows with the UserID as the key for insetion/retrieval.
+  FollowerEdgeList stores the ids and dates of follows in int[] and long[] arrays split into chunks, which are kept sorted by date.
+  FollowerRanking keeps every FollowerRelationship in a list of buckets, one bucket for every number of followers, for getTopUsers().
+  FollowerIntSet is a hash set of ids, FollowerRelationship stores the same ids as each FollowerEdgeList in one, for isAFollower(), getMutualFollowers() and getMutualFollows().
+  Each of these classes is in its own file, e.g. FollowerEdgeList.java, because ConcurrentFollowerStore and MappedFollowerStore use them too.
+  save() and load() write and read the followers of every user as a binary snapshot, using SnapshotWriter and SnapshotReader.
+  After setLog() every follow that is added is also appended to a WriteAheadLog, which is replayed on top of the last snapshot when the store is restored.
    
   ** TIME AND MEMORY COMPLEXITY **
-  Using standard put() and get() methods from a Binary Search Tree, all methods have an average time complexity of O(logn).
-  However, in the worst case scenario, all methods can have a time complexity of O(n) because FollowerRelationships stores LinkedLists.
-  For example, if 100,000 followers follow the same user, this means that the user with 100,000 followers will have a LinkedList of equal length.
-  Consequently, a LinkedList uses a linear search which has an average time complexity of O(n).
-  However, this is a very unlikely possibility, because over a large dataset, the linkedlist would be evenly spread across.
+  Every method starts with a get() on followerMap to find the FollowerRelationship of a user, which is O(1) on average.
+  For example, if 100,000 followers follow the same user, this means that the user with 100,000 followers will have a FollowerEdgeList of equal length.
+  addFollower() finds the position of a follow in a FollowerEdgeList with a binary search, O(logd) where d is the length of the list.
+  bulkLoad() sorts the follows once with the merge sort of DateSort, so every follow is appended to the end of a FollowerEdgeList in O(1) instead of searched in O(logd).
+  load() reads a snapshot through a FileChannel in O(s) where s is the size of the file, adds the follows with bulkLoad() and restores the ranking in O(n).
+  getFollowers() and getFollows() copy a FollowerEdgeList into an array in O(d).
+  isAFollower() does not search a FollowerEdgeList, it is a hash lookup in a FollowerIntSet which is O(1), so addFollower() does not need to search one either.
+  getMutualFollowers() and getMutualFollows() check every id of user 1's list in user 2's FollowerIntSet, so they are O(n) instead of comparing every pair of the two lists.
+  A new follower moves a FollowerRelationship up one bucket in FollowerRanking in O(1), so getTopUsers(k) reads the first k users of the highest buckets in O(k), without sorting.
   As for memory, FollowerStore has a memory complexity of O(n).
+  Every follow is stored twice, in the follows of one user and the followers of the other.
+  Each copy is an int id and a long date in a FollowerEdgeList plus a slot in a FollowerIntSet, about 20 bytes, and no objects are created per follow.
 
-  ** BINARY SEARCH TREE **
-  The main reason I chose a Self-Balancing Binary Search Tree is that it offers the scalability of an Array List while it has a relatively fast insertion and retrieval time complexity of FollowerRelationship. 
-  If I had used an Array List instead, it may have the same level of scalability because both are unbounded and do not require a resize operation.
-  However, the insertion/retrieval method in an Array List requires a linear search or a time complexity of O(n).
-  On the other hand, there are other data structures that offer faster insertion/retrieval methods such as a Hashmap.
-  Although a Hashmap's insertion/retrieval method has a constant time complexity of O(1), a Binary Search Tree does not require a resize operation or is vulnerable to key collisions.
-  This means that over a large data set of 500,000+, a Binary Search Tree can be more efficient because the cost of a Hashmap's resize operation will eventually become more costly than a Binary Search Tree's insertion/retrieval O(logn) time complexity.
+  ** HASH TABLE **
+  FollowerStore used to keep the FollowerRelationships in a Self-Balancing Binary Search Tree keyed by Integer.
+  None of the methods need the users in order of ID, they only look up one or two users by ID, so followerMap is a hash table with a constant time complexity of O(1) instead.
+  IntHashMap.java explains why it is faster than a tree keyed by Integer, and what its resize costs.
   
-  ** SELF-SORTING LINKEDLIST **
-  The self-sorting Linked List is made from 3 classes: FollowerRelationship, ListElement, KeyValuePair.
-  The methods addFollower() and addFollows() in FollowerRelationship help compare dates between a new relationship and stores them in an ordered position.
-  Apart from that, ListElement and KeyValuePair is mainly used for storage of ID's and Dates.
-  The main advantage of implementing a self-sorting Linked List is that many methods want an array of objects in order of Dates.
+  ** SORTED CHUNKED ARRAY **
+  FollowerEdgeList keeps the follows of a user sorted by date in chunks of up to 256 entries.
+  The methods addFollower() and addFollows() in FollowerRelationship use a binary search to store a new relationship in an ordered position.
+  A LinkedList had to be walked from the head to find the position, which made loading the follows of a popular user O(d^2).
+  A full chunk is split into two, so adding a follow only shifts the entries of one chunk, rather than the whole array.
+  The main advantage of keeping the follows sorted is that many methods want an array of objects in order of Dates.
   This avoids the need to sort an array after retrieving them, so that methods that fetch an array can be done so quicker.
    
   ** REFERENCES **
-  Red Black Binary Search Tree taken from http://algs4.cs.princeton.edu/33balanced/RedBlackLiteBST.java.html
-  QUICKSORT taken from //http://www.algolist.net/Algorithms/Sorting/Quicksort
-  LinkedList: ListElement and KeyValuePair is based on what we worked on during Labs.
+  FollowerRanking is based on the O(1) LFU cache bucket list from http://dhruvbird.com/lfu.pdf
  
  * @author: u1500212
  */
@@ -46,23 +50,33 @@ import uk.ac.warwick.java.cs126.models.Weet;
 import uk.ac.warwick.java.cs126.models.User;
 
 import java.util.Date;
+import java.io.IOException;
+import java.nio.file.Path;
 
 
 public class FollowerStore implements IFollowerStore {
     
-    //create the binary search tree
-    FollowerRedBlackLiteBST<Integer> followerBST = new FollowerRedBlackLiteBST<Integer>();
+    //create the hash table
+    IntHashMap<FollowerRelationship> followerMap = new IntHashMap<FollowerRelationship>();
+    FollowerRanking ranking = new FollowerRanking();
+    WriteAheadLog log; // null if there is no log
     
     public FollowerStore() {
     }
+
+    // after setLog() every accepted add is appended to the log before it returns, replay() the log before calling it
+    public void setLog(WriteAheadLog log) {
+	this.log = log;
+    }
     
     
     /**
       addFollower().
       1) check whether uid1 == uid2, impossible to follow yourself! lol
-      2) check whether a FollowerRelationship class exists, if not, create one
+      2) check whether a FollowerRelationship class exists, if not, create one and add it to the ranking
       3) check whether uid1 is a follower of uid2 already. NOTE: have to put this after creating FollowerRelationship, otherwise NullPointerException!
       4) Add relationship: (uid1 follows uid2) and (uid2 is followed by uid1)
+      5) uid2 has one more follower, so move it up in the ranking
     */
     
     // User 1 follows User 2
@@ -74,717 +88,350 @@ public class FollowerStore implements IFollowerStore {
 	
 	
 	//search whether uid1 and uid2 relation exists or not
-	FollowerRelationship userOne = followerBST.get(uid1);
-	FollowerRelationship userTwo = followerBST.get(uid2);
+	FollowerRelationship userOne = followerMap.get(uid1);
+	FollowerRelationship userTwo = followerMap.get(uid2);
 	
 	// if user 1 or 2 does not exists, create a relationship
 	if(userOne == null) {
 	    userOne = new FollowerRelationship(uid1);
-	    followerBST.put(uid1, userOne);
+	    followerMap.put(uid1, userOne);
+	    ranking.add(userOne);
 	}
 	
 	if(userTwo == null) {
 	    userTwo = new FollowerRelationship(uid2);
-	    followerBST.put(uid2, userTwo);
+	    followerMap.put(uid2, userTwo);
+	    ranking.add(userTwo);
 	}
 	
 	// If uid1 ALREADY follows uid2 then return false!!
 	// NOTE: have to put this after creating relationship, otherwise NullPointerException!
-	if(isAFollower(uid1 ,uid2))
+	if(userOne.isAFollower(uid2))
 	    return false;
 	
-	// small tests
-	System.out.println("user " + uid1 + " follows user " + uid2 + " on date..." + followDate);
-	System.out.println("user " + uid2 + " followed by user " + uid1 + " on date..." + followDate);
-	System.out.println();
+	if (log != null)
+	    log.appendFollow(uid1, uid2, followDate);
 	
 	// update relationship
 	// user 1 follows user 2
 	// user 2 is followed by user 1
 	userOne.addFollows(uid2, followDate);
 	userTwo.addFollower(uid1, followDate);
+	ranking.increment(userTwo);
 	
         return true;
     }  
     /**
-      The following methods uses a standard BST's get method O(logn), followed by different operations.
-      getFollowers() and getFollows() retrieves a LinkedList of followers/follows and transfers them into an array of int[].
-      For isAFollower(), this is similar except that it searches the list rather than retrieves the entire list.
+      bulkLoad() adds many follows at once, e.g. when a store is restored, and returns the number that were added.
+      follower[i] follows followed[i] since followDates[i], the same as addFollower(follower[i], followed[i], followDates[i]).
+      1) Find the follows that addFollower() would add, without changing anything, and append them to the log if there is one.
+      A follow that is in the batch twice is found by sorting the pairs of ids, only the first one in the order they were given is added.
+      2) In the order they were given, update the hash sets, numbers and ranking of the added follows.
+      3) Sort the added follows by date with a stable merge sort.
+      3) Add them to the FollowerEdgeLists oldest first, so every add is an append to the last chunk instead of a binary search and a shift.
+      The result is the same as calling addFollower() for every follow in the order they were given.
+    */
+    
+    public int bulkLoad(int[] follower, int[] followed, Date[] followDates) {
+	long[] dates = new long[follower.length];
+	for (int i = 0; i < follower.length; i++) {
+	    dates[i] = followDates[i].getTime();
+	}
+	return bulkLoad(follower, followed, dates, null, follower.length);
+    }
+    
+    // the same as bulkLoad() with the dates as milliseconds, for the first count follows of the arrays
+    // ranks is null, or the position of every follow among the follows of its follower with the same date, which load() uses instead of the order they were given
+    private int bulkLoad(int[] follower, int[] followed, long[] dates, long[] ranks, int count) {
+	
+	// sort the positions by the pair of ids, the sort is stable so the first of equal pairs comes first
+	long[] pairs = new long[count];
+	int[] byPair = new int[count];
+	for (int i = 0; i < count; i++) {
+	    pairs[i] = (long) follower[i] << 32 | (followed[i] & 0xffffffffL);
+	    byPair[i] = i;
+	}
+	DateSort.sort(byPair, pairs, count);
+	
+	// find the follows that are added, nothing is changed before the log has them, like addFollower()
+	boolean[] added = new boolean[count];
+	int addedCount = 0;
+	for (int k = 0; k < count; k++) {
+	    int i = byPair[k];
+	    if (k > 0 && pairs[byPair[k - 1]] == pairs[i])
+		continue;
+	    if (follower[i] == followed[i])
+		continue;
+	    FollowerRelationship userOne = followerMap.get(follower[i]);
+	    if (userOne != null && userOne.isAFollower(followed[i]))
+		continue;
+	    added[i] = true;
+	    addedCount++;
+	}
+	int[] order = new int[addedCount];
+	int k = 0;
+	for (int i = 0; i < count; i++) {
+	    if (added[i])
+		order[k++] = i;
+	}
+	if (log != null)
+	    appendToLog(follower, followed, dates, order);
+	
+	// update the sets, numbers and ranking in the order the follows were given
+	for (k = 0; k < addedCount; k++) {
+	    int i = order[k];
+	    FollowerRelationship userOne = getOrCreate(follower[i]);
+	    FollowerRelationship userTwo = getOrCreate(followed[i]);
+	    userOne.followsSet.add(followed[i]);
+	    userOne.numberOfFollows++;
+	    userTwo.followerSet.add(follower[i]);
+	    userTwo.numberOfFollowers++;
+	    ranking.increment(userTwo);
+	}
+	
+	// sort the added follows by date, oldest first, and append them to the lists
+	// a FollowerEdgeList keeps follows with the same date in the order they were added
+	DateSort.sort(order, dates, addedCount);
+	for (k = 0; k < addedCount; k++) {
+	    int i = order[k];
+	    followerMap.get(followed[i]).follower.add(follower[i], dates[i]);
+	}
+	
+	// the follows lists are in the order of ranks within a date, sorting by rank first keeps it in the sort by date
+	if (ranks != null) {
+	    DateSort.sort(order, ranks, addedCount);
+	    DateSort.sort(order, dates, addedCount);
+	}
+	for (k = 0; k < addedCount; k++) {
+	    int i = order[k];
+	    followerMap.get(follower[i]).follows.add(followed[i], dates[i]);
+	}
+	return addedCount;
+    }
+    
+    // appends the added follows to the log in the order they were given
+    private void appendToLog(int[] follower, int[] followed, long[] dates, int[] order) {
+	int[] uid1 = new int[order.length];
+	int[] uid2 = new int[order.length];
+	long[] followDates = new long[order.length];
+	for (int k = 0; k < order.length; k++) {
+	    uid1[k] = follower[order[k]];
+	    uid2[k] = followed[order[k]];
+	    followDates[k] = dates[order[k]];
+	}
+	log.appendFollows(uid1, uid2, followDates, order.length);
+    }
+    
+    // find the relationship of a user, if it does not exist create one and add it to the ranking
+    private FollowerRelationship getOrCreate(int uid) {
+	FollowerRelationship user = followerMap.get(uid);
+	if (user == null) {
+	    user = new FollowerRelationship(uid);
+	    followerMap.put(uid, user);
+	    ranking.add(user);
+	}
+	return user;
+    }
+    
+    /**
+      save() writes every user to a binary snapshot, see Snapshot for the format.
+      There is one record for every user in the order of getTopUsers(), with the ids and dates of its followers oldest first.
+      The follows of a user are not written, because every follow is already in the followers of the other user.
+      Dates are only in seconds, so the order of follows with the same date can not be worked out from the dates.
+      So every follower also has its rank: the number of follows of the follower with the same date that come before this one in getFollows().
+      load() reads a snapshot with bulkLoad(), which adds the follows lists in the order of the ranks, and returns the number of follows that were added.
+      If the store was empty, getFollowers(), getFollows() and getTopUsers() are then exactly the same as in the saved store.
+    */
+    
+    public void save(Path path) throws IOException {
+	int[] users = ranking.top(ranking.size());
+	try (SnapshotWriter out = new SnapshotWriter(path, Snapshot.FOLLOWERS, users.length)) {
+	    int lastId = 0;
+	    for (int uid : users) {
+		FollowerEdgeList followers = followerMap.get(uid).follower;
+		int[] ids = new int[followers.size()];
+		long[] dates = new long[followers.size()];
+		followers.copyOldestFirst(ids, dates);
+		
+		out.writeSignedVarLong((long) uid - lastId);
+		out.writeVarLong(ids.length);
+		int lastFollower = 0;
+		long lastDate = 0;
+		for (int i = 0; i < ids.length; i++) {
+		    out.writeSignedVarLong((long) ids[i] - lastFollower);
+		    out.writeSignedVarLong(dates[i] - lastDate);
+		    out.writeVarLong(followerMap.get(ids[i]).follows.rank(uid, dates[i]));
+		    lastFollower = ids[i];
+		    lastDate = dates[i];
+		}
+		out.endRecord();
+		lastId = uid;
+	    }
+	    out.finish();
+	}
+    }
+    
+    public int load(Path path) throws IOException {
+	boolean empty = ranking.size() == 0;
+	int[] users;
+	int[] follower = new int[16];
+	int[] followed = new int[16];
+	long[] dates = new long[16];
+	long[] ranks = new long[16];
+	int count = 0;
+	
+	try (SnapshotReader in = new SnapshotReader(path, Snapshot.FOLLOWERS)) {
+	    users = new int[in.count()];
+	    long uid = 0;
+	    for (int u = 0; u < users.length; u++) {
+		in.startRecord();
+		uid += in.readSignedVarLong();
+		users[u] = (int) uid;
+		long followers = in.readVarLong();
+		long id = 0;
+		long date = 0;
+		for (long i = 0; i < followers; i++) {
+		    id += in.readSignedVarLong();
+		    date += in.readSignedVarLong();
+		    if (count == follower.length) {
+			follower = resize(follower, 2 * count);
+			followed = resize(followed, 2 * count);
+			dates = resize(dates, 2 * count);
+			ranks = resize(ranks, 2 * count);
+		    }
+		    follower[count] = (int) id;
+		    followed[count] = users[u];
+		    dates[count] = date;
+		    ranks[count] = in.readVarLong();
+		    count++;
+		}
+		in.endRecord();
+	    }
+	    in.finish();
+	}
+	
+	int added = bulkLoad(follower, followed, dates, ranks, count);
+	if (empty)
+	    restoreRanking(users);
+	return added;
+    }
+    
+    // puts the ranking in the order of users, unless they are not the users of the store sorted by number of followers
+    private void restoreRanking(int[] users) {
+	if (users.length != ranking.size())
+	    return;
+	FollowerRelationship[] ordered = new FollowerRelationship[users.length];
+	for (int i = 0; i < users.length; i++) {
+	    ordered[i] = followerMap.get(users[i]);
+	    if (ordered[i] == null)
+		return;
+	    if (i > 0 && ordered[i].getNumberOfFollowers() > ordered[i - 1].getNumberOfFollowers())
+		return;
+	}
+	ranking.restore(ordered);
+    }
+    
+    /**
+      The following methods uses a standard hash table get method O(1), followed by different operations.
+      getFollowers() and getFollows() retrieves a FollowerEdgeList of followers/follows and transfers them into an array of int[].
+      For isAFollower(), the follows of a user are also stored in a FollowerIntSet, so it is a hash lookup O(1) rather than a search of the list.
       For getNumFollowers(), number of followers is already stored in the class so just retrieve it.
     */
     
     public int[] getFollowers(int uid) {
-	// standard BST search
+	// standard hash table get
 	// fetch an array of IDs using getFollowers()
-        FollowerRelationship search = followerBST.get(uid);
+        FollowerRelationship search = followerMap.get(uid);
         return search.getFollowers();
     }
 
     public int[] getFollows(int uid) {
-	// standard BST search
+	// standard hash table get
 	// fetch an array of IDs using getFollowe()
-        FollowerRelationship search = followerBST.get(uid);
+        FollowerRelationship search = followerMap.get(uid);
         return search.getFollows();
     }
 
     public boolean isAFollower(int uidFollower, int uidFollows) {
-        // standard BST search
-        // User linear search to check whether a corresponding user is a follower of another
-        FollowerRelationship search = followerBST.get(uidFollower);
+        // standard hash table get
+        // then a hash lookup to check whether a corresponding user is a follower of another
+        FollowerRelationship search = followerMap.get(uidFollower);
+        if (search == null)
+            return false;
         return search.isAFollower(uidFollows);
     }
 
     public int getNumFollowers(int uid) { 
-	// standard BST search
+	// standard hash table get
 	// number of followers is already stored in FollowerRelationship, so just use get method.
-        FollowerRelationship search = followerBST.get(uid);
+        FollowerRelationship search = followerMap.get(uid);
         return search.getNumberOfFollowers();
     }
     
     /**
       getMutualFollowers() and getMutualFollows() are the same.
-      Both fetches 2 linked lists of followers/follows.
-      This is followed by comparing each ListElement with each other.
-      In the worst-case scenario, this may produce a time complexity of O(n^2). 
-      However, this is unlikely given the length of a linkedlist is marginal compared to the size of the Binary Search Tree.
-    
+      Both fetch the array of followers/follows of user 1, which is already sorted by date.
+      Each id is then checked against the FollowerIntSet of user 2 in O(1), keeping the ones that are in both.
+      This is O(n) where n is the length of user 1's list, and the result stays in user 1's date order.
      */
     
     public int[] getMutualFollowers(int uid1, int uid2) { 
         // array of ids that follow uid1 AND uid2
+        FollowerRelationship userOne = followerMap.get(uid1);
+        FollowerRelationship userTwo = followerMap.get(uid2);
+        if (userOne == null || userTwo == null)
+            return new int[0];
         
-        // STEPS:
-        // 1) Fetch temporary linkedlists from user 1 and user 2 
-        // 2) compare each element in linkedlist. if they match, store in another SORTED linkedlist using a new method.
-        // 3) turn linkedlist into array to return.
-        
-        //Step 1
-        ListElement tempOne = followerBST.get(uid1).getFollowerListElement();
-        ListElement tempTwo = followerBST.get(uid2).getFollowerListElement();
-        SortedList sortedList = new SortedList();
-        int count = 0;
-        
-        //Step 2
-        // nested for loop
-        for(int i = 0; i < followerBST.get(uid1).getNumberOfFollowers(); i++) {
-	    for(int j = 0; j < followerBST.get(uid2).getNumberOfFollowers(); j++) {
-		if(tempOne.getKVP().getKey() == tempTwo.getKVP().getKey()) {
-		    //add into linkedlist if condition is satisfied
-		    System.out.println("mutual follower found!: " + tempOne.getKVP().getKey());
-		    sortedList.addFollower(tempOne.getKVP().getKey(), tempOne.getKVP().getDate());
-		    count++;
-		}
-		tempTwo = tempTwo.getNext();
-	    }
-	    //reset list for temp Two and getNext for tempOne
-	    tempTwo = followerBST.get(uid2).getFollowerListElement();
-	    tempOne = tempOne.getNext();
-        }
-	
-	
-	// Step 3
-	int[] array = new int[count];
-	ListElement temp = sortedList.follower;
-        for (int k = 0; k < count; k++) {
-	    array[k] = temp.getKVP().getKey();
-	    temp = temp.getNext();
-        }
-        
-        return array;
+        return keepMutual(userOne.getFollowers(), userTwo.followerSet);
     }
 
     public int[] getMutualFollows(int uid1, int uid2) {
         // array of ids that are followed by user 1 and 2
+        FollowerRelationship userOne = followerMap.get(uid1);
+        FollowerRelationship userTwo = followerMap.get(uid2);
+        if (userOne == null || userTwo == null)
+            return new int[0];
         
-        // STEPS:
-        // 1) Fetch temporary linkedlists from user 1 and user 2 
-        // 2) compare each element in linkedlist. if they match, store in another SORTED linkedlist using a new method.
-        // 3) turn linkedlist into array to return.
-        
-        //Step 1
-        ListElement tempOne = followerBST.get(uid1).getFollowsListElement();
-        ListElement tempTwo = followerBST.get(uid2).getFollowsListElement();
-        SortedList sortedList = new SortedList();
-        int count = 0;
-        
-        //Step 2: nested for loop
-        for(int i = 0; i < followerBST.get(uid1).getNumberOfFollows(); i++) {
-	    for(int j = 0; j < followerBST.get(uid2).getNumberOfFollows(); j++) {
-		if(tempOne.getKVP().getKey() == tempTwo.getKVP().getKey()) {
-		    //add into linkedlist if found
-		    System.out.println("mutual follows found!: " + tempOne.getKVP().getKey());
-		    sortedList.addFollower(tempOne.getKVP().getKey(), tempOne.getKVP().getDate());
-		    count++;
-		}
-		tempTwo = tempTwo.getNext();
-	    }
-	    // reset list for tempTwo and getNext for temp One
-	    tempTwo = followerBST.get(uid2).getFollowsListElement(); //reset list
-	    tempOne = tempOne.getNext();
-        }
-	
-	// Step 3
-	int[] array = new int[count];
-	ListElement temp = sortedList.follower;
-        for (int k = 0; k < count; k++) {
-	    array[k] = temp.getKVP().getKey();
-	    temp = temp.getNext();
-        }
-        
-        return array;
-    }
-    
-    /**
-      getTopUsers().
-      1) Create an array of KeyValuePairTopUsers.
-      2) Sort it using QuickSort.
-      3) Transfer KeyValuePairTopUsers[] into an int[].
-    */
-    
-    public int[] getTopUsers() {
-	
-	// create array of KeyValuePairTopUsers using in order traversal
-        KeyValuePairTopUsers[] kvpArray = followerBST.inorder();
-        
-        // sort the array
-        quickSort(kvpArray, 0, followerBST.size() - 1);
-        
-        // transform KVP array into an int array of users
-        // test the array again to see sorted or not
-        int[] array = new int[followerBST.size()];
-        for(int i = 0; i < followerBST.size(); i++) {
-	    array[i] = kvpArray[i].getKey();
-	    System.out.println("user " + array[i] + " has " + kvpArray[i].getNumberOfFollowers() + " followers");
-        }
-        
-        return array;
-    }
-    
-    /**
-    * Additional methods
-    */
-    
-    public static void quickSort(KeyValuePairTopUsers[] array, int low, int high) {
-	// if array is null, return
-	if (array == null)
-	    return;
-	
-	//pick the pivot
-	int middle = low + (high - low)/2;
-	KeyValuePairTopUsers pivot = array[middle];
-	
-	//make left < pivot and right > pivot
-	int i = low, j = high;
-	while (i <= j) {
-	    while(array[i].getNumberOfFollowers() > pivot.getNumberOfFollowers() )
-		i++;
-	    while(array[j].getNumberOfFollowers() < pivot.getNumberOfFollowers() )
-		j--;
-	    if (i <= j) {
-		KeyValuePairTopUsers temp = array[i];
-		array[i] = array[j];
-		array[j] = temp;
-		i++;
-		j--;
-	    }   
-	}
-	
-	//recursively sort two sub parts
-	if (low < j)
-	    quickSort(array, low, j);
-	if (high > i)
-	    quickSort(array, i, high);
-    }
-}
-
-class FollowerRedBlackLiteBST<Key extends Comparable<Key>> {
-
-    private static final boolean RED   = true;
-    private static final boolean BLACK = false;
-
-    private Node root;     // root of the BST
-    private int n;         // number of key-value pairs in BST
-
-    // BST helper node data type
-    private class Node {
-        private Key key;           // key
-        private FollowerRelationship val;         // associated data
-        private Node left, right;  // links to left and right subtrees
-        private boolean color;     // color of parent link
-
-        public Node(Key key, FollowerRelationship val, boolean color) {
-            this.key = key;
-            this.val = val;
-            this.color = color;
-        }
-    }
-
-   /***************************************************************************
-    *  Standard BST search.
-    ***************************************************************************/
-
-    // return value associated with the given key, or null if no such key exists
-    public FollowerRelationship get(Key key) {
-        return get(root, key);
-    }
-    public FollowerRelationship get(Node x, Key key) {
-        while (x != null) {
-            int cmp = key.compareTo(x.key);
-            if      (cmp < 0) x = x.left;
-            else if (cmp > 0) x = x.right;
-            else              return x.val;
-        }
-        return null;
-    }
-
-    // is there a key-value pair in the symbol table with the given key?
-    public boolean contains(Key key) {
-        return get(key) != null;
-    }
-
-
-   /***************************************************************************
-    *  Red-black tree insertion.
-    ***************************************************************************/
-
-    public void put(Key key, FollowerRelationship val) {
-        root = insert(root, key, val);
-        root.color = BLACK;
-    }
-
-    private Node insert(Node h, Key key, FollowerRelationship val) { 
-        if (h == null) {
-            n++;
-            return new Node(key, val, RED);
-        }
-
-        int cmp = key.compareTo(h.key);
-        if      (cmp < 0) h.left  = insert(h.left,  key, val); 
-        else if (cmp > 0) h.right = insert(h.right, key, val); 
-        else              h.val   = val;
-
-        // fix-up any right-leaning links
-        if (isRed(h.right) && !isRed(h.left))      h = rotateLeft(h);
-        if (isRed(h.left)  &&  isRed(h.left.left)) h = rotateRight(h);
-	if (isRed(h.left) && isRed(h.right)) flipColors(h);
-
-        return h;
-    }
-
-   /***************************************************************************
-    *  Red-black tree helper functions.
-    ***************************************************************************/
-
-    // is node x red (and non-null) ?
-    private boolean isRed(Node x) {
-        if (x == null) return false;
-        return x.color == RED;
-    }
-
-    // rotate right
-    private Node rotateRight(Node h) {
-        assert (h != null) && isRed(h.left);
-        Node x = h.left;
-        h.left = x.right;
-        x.right = h;
-        x.color = h.color;
-        h.color = RED;
-        return x;
-    }
-
-    // rotate left
-    private Node rotateLeft(Node h) {
-        assert (h != null) && isRed(h.right);
-        Node x = h.right;
-        h.right = x.left;
-        x.left = h;
-        x.color = h.color;
-        h.color = RED;
-        return x;
-    }
-
-    // precondition: two children are red, node is black
-    // postcondition: two children are black, node is red
-    private void flipColors(Node h) {
-        assert !isRed(h) && isRed(h.left) && isRed(h.right);
-        h.color = RED;
-        h.left.color = BLACK;
-        h.right.color = BLACK;
-    }
-
-
-   /***************************************************************************
-    *  Utility functions.
-    ***************************************************************************/
-    // return number of key-value pairs in symbol table
-    public int size() {
-        return n;
-    }
-
-    // is the symbol table empty?
-    public boolean isEmpty() {
-        return n == 0;
-    }
-
-    // height of tree (1-node tree has height 0        
-    public int height() { return height(root); }
-    private int height(Node x) {
-        if (x == null) return -1;
-        return 1 + Math.max(height(x.left), height(x.right));
-    }
-
-    // return the smallest key; null if no such key        
-    public Key min() { return min(root); }
-    private Key min(Node x) {
-        Key key = null;
-        while (x != null) {
-            key = x.key;
-            x = x.left;
-        }
-        return key;
-    }
-
-    // return the largest key; null if no such key
-    public Key max() { return max(root); }
-    private Key max(Node x) {
-        Key key = null;
-        while (x != null) {
-            key = x.key;
-            x = x.right;
-        }
-        return key;
-    }
-
-
-   /***************************************************************************
-    *  Iterate using an inorder traversal.
-    *  Iterating through N elements takes O(N) time.
-    ***************************************************************************/
-    private int count = 0;
-    
-    public KeyValuePairTopUsers[] inorder() {
-        KeyValuePairTopUsers[] kvpArray = new KeyValuePairTopUsers[size()];
-        inorder(root, kvpArray);
-        count = 0; // reset count to zero again
-        return kvpArray;
-    }
-
-    private void inorder(Node x, KeyValuePairTopUsers[] kvpArray) { 
-        if (x == null) return; 
-        inorder(x.left, kvpArray); 
-        
-        //do stuff here
-
-        kvpArray[count] = new KeyValuePairTopUsers(x.val.userid , x.val.numberOfFollowers);
-        count++;
-        
-        inorder(x.right, kvpArray); 
+        return keepMutual(userOne.getFollows(), userTwo.followsSet);
     }
     
-    
- 
-}
-
-/**
-    Each node of the BST stores a FollowerRelationship.
-    It stores 2 LinkedList and uses the id as the key.
-    addFollower() and addFollows() adds relationships and stores them automatically by dates.
-    getFollowers(), getFollows() and isAFollower() are similar methods, with the difference that one retrieves everything and one searches for something.
-    
-*/
-
-class FollowerRelationship {
-    // store userid and number of followers/follows
-    int userid;
-    int numberOfFollowers;
-    int numberOfFollows;
-    // linked list
-    public ListElement follower;
-    public ListElement follows;
-    
-    public FollowerRelationship(int userid) {
-	this.userid = userid;
-	numberOfFollowers = 0;
-	numberOfFollows = 0;
-    }
-    
-    public void addFollower(Integer followerid, Date date) {
-	// create KVP and List element using input
-	KeyValuePair kvp = new KeyValuePair(followerid, date);
-	ListElement new_element = new ListElement(kvp);
-	
-	
-	// if follower does not exists, create one
-	if(this.follower == null) {
-	    this.follower = new ListElement(kvp);
-	    numberOfFollowers++;
-	    return;
-	}
-
-	// Three possible cases
-	// case 1: Element is more recent than head.
-	// case 2: Insert element somewhere in the middle
-	// case 3: Element is at the end of list
-	
-	//case 1
-	if(this.follower.getKVP().getDate().compareTo(date) <= 0) {
-	    new_element.setNext(follower);  
-	    follower = new_element;
-	    numberOfFollowers++;
-	    return;
-	}
-	
-	//case 2
-	ListElement temp = this.follower;
-	// while a next element exists
-	while(temp.getNext() != null) { 
-	    // compares Next Element with date
-	    int cmp = temp.getNext().getKVP().getDate().compareTo(date); 
-	    if(cmp <= 0) {
-		new_element.setNext(temp.getNext());
-		temp.setNext(new_element);
-		numberOfFollowers++;
-		return;
-	    }
-	    temp = temp.getNext();
-	}
-	
-	//case 3
-	temp.setNext(new_element);
-	numberOfFollowers++;
-	return;
-    }
-    
-    public void addFollows(Integer followsid, Date date) {
-	// create KVP and List element using input
-	KeyValuePair kvp = new KeyValuePair(followsid, date);
-	ListElement new_element = new ListElement(kvp);
-	
-	// if follows does not exists, create one
-	if(this.follows == null) { // if first element then add
-	    this.follows = new ListElement(kvp);
-	    numberOfFollows++;
-	    return;
+    // keeps the ids that are also in the set, moving them to the front of the array in the same order
+    private static int[] keepMutual(int[] ids, FollowerIntSet other) {
+	int count = 0;
+	for (int i = 0; i < ids.length; i++) {
+	    if (other.contains(ids[i]))
+		ids[count++] = ids[i];
 	}
 	
-	// Three possible cases
-	// case 1: Element is more recent than head.
-	// case 2: Insert element somewhere in the middle
-	// case 3: Element is at the end of list
-	
-	// case 1
-	if(this.follows.getKVP().getDate().compareTo(date) <= 0) {
-	    new_element.setNext(follows);
-	    follows = new_element;
-	    numberOfFollows++;
-	    return;
-	}
-	
-	// case 2
-	ListElement temp = this.follows;
-	while(temp.getNext() != null) {
-	
-	    int cmp = temp.getNext().getKVP().getDate().compareTo(date);
-	    if(cmp <= 0) {
-		new_element.setNext(temp.getNext());
-		temp.setNext(new_element);
-		numberOfFollows++;
-		return;
-	    }
-	    temp = temp.getNext();
-	}
-	
-	// case 3
-	temp.setNext(new_element);
-	numberOfFollows++;
-	return;
-    }
-    
-    
-    // standard get method
-    public int getUserId() {
-	return this.userid; 
-    }
-    
-    public int[] getFollowers() {
-	// create array of int
-	int[] array = new int[numberOfFollowers];
-	ListElement temp = this.follower;
-	
-	// transfer the linkedlist into the array
-	for(int i = 0; i < numberOfFollowers; i++) {
-	    array[i] = temp.getKVP().getKey();
-	    temp = temp.getNext();
-	}
-	
-	return array;
-    }
-    
-    public int[] getFollows() {
-	// create array of int
-	int[] array = new int[numberOfFollows];
-	ListElement temp = this.follows;
-	
-	// transfer the linkedlist into the array
-	for(int i = 0; i < numberOfFollows; i++) {
-	    array[i] = temp.getKVP().getKey();
-	    temp = temp.getNext();
-	}
+	int[] array = new int[count];
+	System.arraycopy(ids, 0, array, 0, count);
 	return array;
     }
     
-    public boolean isAFollower(int followsid) {
-	// finds out whether this.userid follows followsid
-	// linear search
-	int[] arrayOfFollows = getFollows();
-	
-	// check whether the follower exists or not
-	for(int i = 0; i < numberOfFollows; i++) {
-	    if(arrayOfFollows[i] == followsid) {
-		return true;
-	    }
-	}
-	return false;
-    }
-    
     /**
-    * standard get methods
+      getTopUsers().
+      The users are already sorted by number of followers in the ranking, so just copy them into an int[].
+      getTopUsers() returns every user in O(n), getTopUsers(k) only the first k users in O(k).
     */
-    public int getNumberOfFollowers() {
-	return numberOfFollowers;
-    }
-    
-    public int getNumberOfFollows() {
-	return numberOfFollows;
-    }
-    
-    public ListElement getFollowerListElement() {
-	return follower;
-    }
-    
-    public ListElement getFollowsListElement() {
-	return follows;
-    }
-}
-
-class KeyValuePair {
-    //stores integer and date
-    private Integer id;
-    private Date date;
-    
-    public KeyValuePair(Integer id, Date date) {
-	this.id = id;
-	this.date = date;
-    }
-    
-    //standard get method
-    public Integer getKey() {
-	return id;
-    }
-    //stanfard get method
-    public Date getDate() {
-	return date;
-    }
-    //compares keyvaluepair with another
-    public int compareTo(KeyValuePair o) {
-	return o.getKey().compareTo(this.getKey());
-    }
-}
-
-class ListElement {
-    // Each list element stores a keyValuePair and another ListElement to point to
-    private KeyValuePair kvp;
-    private ListElement next;
     
-    public ListElement(KeyValuePair kvp) {
-	this.kvp = kvp;
+    public int[] getTopUsers() {
+        return getTopUsers(ranking.size());
     }
     
-    // standard get method
-    public KeyValuePair getKVP() {
-	return this.kvp;
+    public int[] getTopUsers(int k) {
+        return ranking.top(k);
     }
     
-    // standard get method
-    public ListElement getNext() {
-	return this.next;
+    private static int[] resize(int[] array, int length) {
+	int[] newArray = new int[length];
+	System.arraycopy(array, 0, newArray, 0, Math.min(array.length, length));
+	return newArray;
     }
     
-    // set next method
-    public void setNext(ListElement e) {
-	this.next = e;
+    private static long[] resize(long[] array, int length) {
+	long[] newArray = new long[length];
+	System.arraycopy(array, 0, newArray, 0, Math.min(array.length, length));
+	return newArray;
     }
-}
-
-/**
-  This class is used to help the last method getTopUsers().
-*/
-
-class KeyValuePairTopUsers {
-    // stores id and number of followers
-    private Integer id;
-    private Integer followers;
     
-    public KeyValuePairTopUsers(Integer id, Integer followers) {
-	this.id = id;
-	this.followers = followers;
-    }
-    // standard get methods
-    public Integer getKey() {
-	return id;
-    }
-    // standard get methods
-    public Integer getNumberOfFollowers() {
-	return followers;
-    }
-}
-
-/**
-    This class is used to help getMutualFollowers() and getMutualFollows() to store them in order.
-*/
-
-class SortedList {
-    public ListElement follower;
-    
-    public void addFollower(Integer followerid, Date date) {
-	// create kvp and listelement using the input
-	KeyValuePair kvp = new KeyValuePair(followerid, date);
-	ListElement new_element = new ListElement(kvp);
-	
-	//if the follower does not exists, create one
-	if(this.follower == null) {
-	    this.follower = new ListElement(kvp);
-	    return;
-	}
-
-	// Three possible cases
-	// case 1: Element is more recent than head.
-	// case 2: Insert element somewhere in the middle
-	// case 3: Element is at the end of list
-	
-	// case 1
-	if(this.follower.getKVP().getDate().compareTo(date) <= 0) {
-	    new_element.setNext(follower);  
-	    follower = new_element;
-	    return;
-	}
-	
-	// case 2
-	ListElement temp = this.follower;
-	while(temp.getNext() != null) { // while a next element exists
-	    
-	    int cmp = temp.getNext().getKVP().getDate().compareTo(date); // compares Next Element with date
-	    if(cmp <= 0) {
-		new_element.setNext(temp.getNext());
-		temp.setNext(new_element);
-		return;
-	    }
-	    
-	    temp = temp.getNext();
-	}
-	
-	// case 3
-	temp.setNext(new_element);
-	return;
-    }
 }
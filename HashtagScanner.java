@@ -0,0 +1,53 @@
+/**
+  HashtagScanner finds every #trend in a message, the same as repeatedly calling find() with the regex #(\w+|\W+).
+  After a '#', a run of letters, digits and underscores is the #trend, otherwise the run of other characters is.
+  A '#' at the end of the message is not a #trend.
+  It scans the characters of the message directly, and only creates a String for each #trend it finds.
+
+ @author: u1500212
+ */
+
+package uk.ac.warwick.java.cs126.services;
+
+class HashtagScanner {
+    private String message;
+    private int position; // where the next search starts
+    private int start, end; // the last #trend found
+    
+    public void reset(String message) {
+	this.message = message;
+	this.position = 0;
+    }
+    
+    // finds the next #trend, returns false if there are no more
+    public boolean next() {
+	int length = message.length();
+	while (position < length - 1) {
+	    int hash = message.indexOf('#', position);
+	    if (hash < 0 || hash == length - 1)
+		break;
+	    
+	    // either a run of word characters or a run of other characters follows the '#'
+	    boolean word = isWordChar(message.charAt(hash + 1));
+	    int i = hash + 1;
+	    while (i < length && isWordChar(message.charAt(i)) == word)
+		i++;
+	    
+	    start = hash;
+	    end = i;
+	    position = i;
+	    return true;
+	}
+	position = length;
+	return false;
+    }
+    
+    public String hashtag() {
+	return message.substring(start, end);
+    }
+    
+    // letters, digits and underscores, same as \w, WeetTokenIndex splits words with it too
+    public static boolean isWordChar(char c) {
+	return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+}
@@ -0,0 +1,115 @@
+/**
+  IntHashMap is a hash table from an int id to a value, used by WeetStore, UserStore and FollowerStore to find an object by its id.
+  It uses open addressing with linear probing in an int[] of keys and an Object[] of values, so ids are never boxed into Integers.
+  A slot is empty when its value is null, so every int can be a key but null cannot be a value.
+  The arrays are doubled when they are half full, which keeps the probes short.
+  get() and put() are O(1) on average, and get() does not allocate anything.
+
+  ** WHY NOT A TREE **
+  The stores used to find objects by ID in a Binary Search Tree keyed by Integer.
+  A tree keyed by Integer boxes every ID and follows a pointer to a different node at each of its logn levels, while IntHashMap keeps the IDs in a plain int array.
+  The resize operation doubles the arrays, so its cost is O(1) amortized per insertion and does not become more costly than the O(logn) of a tree.
+
+  ** REFERENCES **
+  Linear probing based on http://algs4.cs.princeton.edu/34hash/LinearProbingHashST.java.html
+
+ @author: u1500212
+ */
+
+package uk.ac.warwick.java.cs126.services;
+
+class IntHashMap<Value> {
+    private int[] keys; // length is always a power of two
+    private Object[] values;
+    private int n; // number of key value pairs
+
+    public IntHashMap() {
+	this(16);
+    }
+
+    // capacity is the number of pairs that fit before the first resize
+    public IntHashMap(int capacity) {
+	int length = Integer.highestOneBit(Math.max(capacity, 4) * 2 - 1) << 1;
+	keys = new int[length];
+	values = new Object[length];
+    }
+
+    @SuppressWarnings("unchecked")
+    public Value get(int key) {
+	int mask = keys.length - 1;
+	for (int i = hash(key) & mask; values[i] != null; i = (i + 1) & mask) {
+	    if (keys[i] == key)
+		return (Value) values[i];
+	}
+	return null;
+    }
+
+    public boolean contains(int key) {
+	return get(key) != null;
+    }
+
+    // adds or replaces the value of a key
+    public void put(int key, Value value) {
+	if (value == null)
+	    throw new IllegalArgumentException("value cannot be null");
+
+	int mask = keys.length - 1;
+	int i = hash(key) & mask;
+	while (values[i] != null) {
+	    if (keys[i] == key) {
+		values[i] = value;
+		return;
+	    }
+	    i = (i + 1) & mask;
+	}
+	keys[i] = key;
+	values[i] = value;
+	n++;
+
+	// double the arrays when they are half full
+	if (2 * n > keys.length)
+	    resize(2 * keys.length);
+    }
+
+    // copies every value into array, which has to be at least size() long, in no particular order
+    @SuppressWarnings("unchecked")
+    public Value[] values(Value[] array) {
+	int count = 0;
+	for (int i = 0; i < values.length; i++) {
+	    if (values[i] != null)
+		array[count++] = (Value) values[i];
+	}
+	return array;
+    }
+
+    public int size() {
+	return n;
+    }
+
+    public boolean isEmpty() {
+	return n == 0;
+    }
+
+    private void resize(int length) {
+	int[] oldKeys = keys;
+	Object[] oldValues = values;
+	keys = new int[length];
+	values = new Object[length];
+	int mask = length - 1;
+	for (int j = 0; j < oldKeys.length; j++) {
+	    if (oldValues[j] != null) {
+		int i = hash(oldKeys[j]) & mask;
+		while (values[i] != null)
+		    i = (i + 1) & mask;
+		keys[i] = oldKeys[j];
+		values[i] = oldValues[j];
+	    }
+	}
+    }
+
+    // spreads the bits of the id, so ids that only differ in the high bits do not collide
+    private static int hash(int key) {
+	int h = key * 0x9E3779B9;
+	return h ^ (h >>> 16);
+    }
+}
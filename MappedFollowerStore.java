@@ -0,0 +1,278 @@
+/**
+
+  ** CLASSES **
+  MappedFollowerStore is a read only FollowerStore that answers every method straight from a snapshot file mapped into memory, for read replicas that should start without loading anything.
+  write() saves a FollowerStore in the fixed width format below, and the constructor maps the file with a MappedByteBuffer for every section.
+  The lists are read into an int[] only when a method returns them, nothing is loaded onto the heap when the file is opened.
+  addFollower() always returns false, which is how IFollowerStore rejects a follow, a new snapshot has to be written and mapped to add follows.
+
+  ** FILE FORMAT **
+  The header is HEADER bytes: MAGIC, VERSION and Snapshot.MAPPED_FOLLOWERS, the number of users and follows, and the offset of every section.
+  users has one USER byte record per user sorted by ID: the ID, and the start and length of its followers and follows in the edge sections.
+  followers and follows have the ids of the followers and follows of every user, most recent first like getFollowers() and getFollows().
+  sortedFollowers and sortedFollows have the same lists with every list sorted by ID, for binary searches in isAFollower(), getMutualFollowers() and getMutualFollows().
+  ranking has the ids of every user in the order of getTopUsers().
+  Every number is a big endian int, so the offset of an entry is worked out without reading the entries before it.
+
+  ** TIME AND MEMORY COMPLEXITY **
+  Opening a MappedFollowerStore only reads the header and maps the file, O(1).
+  Every method starts with a binary search for the user in users, O(logn), instead of O(1) in a hash table, because a hash table would have to be built when the file is opened.
+  getFollowers() and getFollows() copy one list, O(logn + d) where d is the length of the list.
+  isAFollower() is a binary search in the sorted follows of the user, O(logn + logd).
+  getMutualFollowers() and getMutualFollows() check every id of user 1's list with a binary search in user 2's sorted list, O(d1 logd2).
+  getTopUsers(k) copies the first k ids of ranking, O(k).
+  The heap memory of MappedFollowerStore is O(1), the file is USER bytes per user plus 16 bytes per follow, and is held by the page cache instead.
+  Dates are not saved, every list is already in the order the methods return it.
+
+  ** CONSISTENCY **
+  The file is never changed after it is mapped, because write() replaces a snapshot by moving a new file over it.
+  Every read uses absolute positions, so any number of threads can read one MappedFollowerStore without a lock.
+
+  ** REFERENCES **
+  MappedByteBuffer and FileChannel.map() from java.nio.
+
+ @author: u1500212
+ */
+
+package uk.ac.warwick.java.cs126.services;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Date;
+
+public class MappedFollowerStore implements IFollowerStore {
+
+    static final int HEADER = 64;
+    static final int USER = 20;
+
+    private int n; // number of users
+    private int e; // number of follows
+    private MappedByteBuffer users;
+    private MappedByteBuffer followers;
+    private MappedByteBuffer follows;
+    private MappedByteBuffer sortedFollowers;
+    private MappedByteBuffer sortedFollows;
+    private MappedByteBuffer ranking;
+
+    public MappedFollowerStore(Path path) throws IOException {
+	try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+	    MappedByteBuffer header = Snapshot.map(channel, 0, HEADER);
+	    if (header.getInt(0) != Snapshot.MAGIC || header.get(5) != Snapshot.MAPPED_FOLLOWERS)
+		throw new IOException(path + " is not a snapshot of a MappedFollowerStore");
+	    if (header.get(4) != Snapshot.VERSION)
+		throw new IOException(path + " has version " + header.get(4) + ", only version " + Snapshot.VERSION + " can be read");
+	    n = header.getInt(8);
+	    e = header.getInt(12);
+	    if (n < 0 || e < 0)
+		throw new IOException(path + " has an invalid number of records");
+
+	    // the mappings stay valid after the channel is closed
+	    users = Snapshot.map(channel, header.getLong(16), (long) USER * n);
+	    followers = Snapshot.map(channel, header.getLong(24), 4L * e);
+	    follows = Snapshot.map(channel, header.getLong(32), 4L * e);
+	    sortedFollowers = Snapshot.map(channel, header.getLong(40), 4L * e);
+	    sortedFollows = Snapshot.map(channel, header.getLong(48), 4L * e);
+	    ranking = Snapshot.map(channel, header.getLong(56), 4L * n);
+	}
+    }
+
+    /**
+      write() saves a FollowerStore so that it can be opened as a MappedFollowerStore.
+      1) Get every user from the ranking, and sort their ids for users.
+      2) Work out the start of every user's lists from the number of followers and follows, so the header and users can be written first.
+      3) Write every section in order, copying the lists out of the FollowerEdgeLists again for each section instead of keeping them all in memory.
+    */
+
+    public static void write(FollowerStore store, Path path) throws IOException {
+	int[] top = store.ranking.top(store.ranking.size());
+	int[] ids = top.clone();
+	Arrays.sort(ids);
+	FollowerRelationship[] relationships = new FollowerRelationship[ids.length];
+	long edges = 0;
+	for (int i = 0; i < ids.length; i++) {
+	    relationships[i] = store.followerMap.get(ids[i]);
+	    edges += relationships[i].getNumberOfFollowers();
+	}
+	if (edges > Integer.MAX_VALUE / 4)
+	    throw new IOException(edges + " follows are too many to map");
+	int count = (int) edges;
+
+	long usersOffset = HEADER;
+	long followersOffset = usersOffset + (long) USER * ids.length;
+	long followsOffset = followersOffset + 4L * count;
+	long sortedFollowersOffset = followsOffset + 4L * count;
+	long sortedFollowsOffset = sortedFollowersOffset + 4L * count;
+	long rankingOffset = sortedFollowsOffset + 4L * count;
+
+	try (MappedSnapshotWriter out = new MappedSnapshotWriter(path)) {
+	    out.putInt(Snapshot.MAGIC);
+	    out.putByte(Snapshot.VERSION);
+	    out.putByte(Snapshot.MAPPED_FOLLOWERS);
+	    out.padTo(8);
+	    out.putInt(ids.length);
+	    out.putInt(count);
+	    out.putLong(usersOffset);
+	    out.putLong(followersOffset);
+	    out.putLong(followsOffset);
+	    out.putLong(sortedFollowersOffset);
+	    out.putLong(sortedFollowsOffset);
+	    out.putLong(rankingOffset);
+	    out.padTo(HEADER);
+
+	    int followerStart = 0, followsStart = 0;
+	    for (int i = 0; i < ids.length; i++) {
+		out.putInt(ids[i]);
+		out.putInt(followerStart);
+		out.putInt(relationships[i].getNumberOfFollowers());
+		out.putInt(followsStart);
+		out.putInt(relationships[i].getNumberOfFollows());
+		followerStart += relationships[i].getNumberOfFollowers();
+		followsStart += relationships[i].getNumberOfFollows();
+	    }
+	    for (int sorted = 0; sorted < 2; sorted++) {
+		for (int i = 0; i < ids.length; i++) {
+		    putAll(out, relationships[i].getFollowers(), sorted == 1);
+		}
+		for (int i = 0; i < ids.length; i++) {
+		    putAll(out, relationships[i].getFollows(), sorted == 1);
+		}
+	    }
+	    for (int i = 0; i < top.length; i++) {
+		out.putInt(top[i]);
+	    }
+	    out.finish();
+	}
+    }
+
+    private static void putAll(MappedSnapshotWriter out, int[] list, boolean sorted) throws IOException {
+	if (sorted)
+	    Arrays.sort(list);
+	for (int i = 0; i < list.length; i++) {
+	    out.putInt(list[i]);
+	}
+    }
+
+    // the store is read only, so every follow is rejected
+    public boolean addFollower(int uid1, int uid2, Date followDate) {
+	return false;
+    }
+
+    /**
+      The following methods find the user with a binary search in users, and then read its lists.
+      Users that do not exist have no followers, so an empty array or 0 is returned, the same as ConcurrentFollowerStore.
+    */
+
+    public int[] getFollowers(int uid) {
+	int user = findUser(uid);
+	if (user < 0)
+	    return new int[0];
+	return read(followers, users.getInt(USER * user + 4), users.getInt(USER * user + 8));
+    }
+
+    public int[] getFollows(int uid) {
+	int user = findUser(uid);
+	if (user < 0)
+	    return new int[0];
+	return read(follows, users.getInt(USER * user + 12), users.getInt(USER * user + 16));
+    }
+
+    public boolean isAFollower(int uidFollower, int uidFollows) {
+	int user = findUser(uidFollower);
+	if (user < 0)
+	    return false;
+	int start = users.getInt(USER * user + 12);
+	return contains(sortedFollows, start, start + users.getInt(USER * user + 16), uidFollows);
+    }
+
+    public int getNumFollowers(int uid) {
+	int user = findUser(uid);
+	if (user < 0)
+	    return 0;
+	return users.getInt(USER * user + 8);
+    }
+
+    // the followers of user 1 that also follow user 2, in user 1's date order
+    public int[] getMutualFollowers(int uid1, int uid2) {
+	int userTwo = findUser(uid2);
+	if (userTwo < 0)
+	    return new int[0];
+	int start = users.getInt(USER * userTwo + 4);
+	return keepMutual(getFollowers(uid1), sortedFollowers, start, start + users.getInt(USER * userTwo + 8));
+    }
+
+    // the users followed by both user 1 and user 2, in user 1's date order
+    public int[] getMutualFollows(int uid1, int uid2) {
+	int userTwo = findUser(uid2);
+	if (userTwo < 0)
+	    return new int[0];
+	int start = users.getInt(USER * userTwo + 12);
+	return keepMutual(getFollows(uid1), sortedFollows, start, start + users.getInt(USER * userTwo + 16));
+    }
+
+    public int[] getTopUsers() {
+	return getTopUsers(n);
+    }
+
+    public int[] getTopUsers(int k) {
+	return read(ranking, 0, Math.max(0, Math.min(k, n)));
+    }
+
+    /**
+     Additional methods.
+    */
+
+    // binary search for the record of a user in users, or -1 if the user has no followers or follows
+    private int findUser(int uid) {
+	int low = 0, high = n - 1;
+	while (low <= high) {
+	    int middle = low + (high - low)/2;
+	    int id = users.getInt(USER * middle);
+	    if (id < uid)
+		low = middle + 1;
+	    else if (id > uid)
+		high = middle - 1;
+	    else
+		return middle;
+	}
+	return -1;
+    }
+
+    // copies length ints of a section from entry start
+    private static int[] read(MappedByteBuffer section, int start, int length) {
+	int[] array = new int[length];
+	for (int i = 0; i < length; i++) {
+	    array[i] = section.getInt(4 * (start + i));
+	}
+	return array;
+    }
+
+    // binary search for id in the sorted entries from start to end
+    private static boolean contains(MappedByteBuffer section, int start, int end, int id) {
+	int low = start, high = end - 1;
+	while (low <= high) {
+	    int middle = low + (high - low)/2;
+	    int value = section.getInt(4 * middle);
+	    if (value < id)
+		low = middle + 1;
+	    else if (value > id)
+		high = middle - 1;
+	    else
+		return true;
+	}
+	return false;
+    }
+
+    // keeps the ids that are also in the sorted entries from start to end, moving them to the front of the array in the same order
+    private static int[] keepMutual(int[] ids, MappedByteBuffer sorted, int start, int end) {
+	int count = 0;
+	for (int i = 0; i < ids.length; i++) {
+	    if (contains(sorted, start, end, ids[i]))
+		ids[count++] = ids[i];
+	}
+	return Arrays.copyOf(ids, count);
+    }
+}
@@ -0,0 +1,95 @@
+/**
+  MappedSnapshotWriter writes the fixed width files of MappedWeetStore.write() and MappedFollowerStore.write(), which are opened with Snapshot.map().
+  The caller works out the offset of every section first and writes the header with them, so the file is written from start to end without seeking.
+
+ @author: u1500212
+ */
+
+package uk.ac.warwick.java.cs126.services;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+class MappedSnapshotWriter implements Closeable {
+    private Path path;
+    private Path temporary;
+    private FileChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(Snapshot.BUFFER_SIZE);
+    private long position; // number of bytes written so far
+    private boolean finished;
+
+    public MappedSnapshotWriter(Path path) throws IOException {
+	this.path = path;
+	temporary = Snapshot.temporary(path);
+	channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    }
+
+    public long position() {
+	return position;
+    }
+
+    public void putByte(int value) throws IOException {
+	ensure(1);
+	buffer.put((byte) value);
+	position++;
+    }
+
+    public void putInt(int value) throws IOException {
+	ensure(4);
+	buffer.putInt(value);
+	position += 4;
+    }
+
+    public void putLong(long value) throws IOException {
+	ensure(8);
+	buffer.putLong(value);
+	position += 8;
+    }
+
+    public void putBytes(byte[] bytes) throws IOException {
+	int i = 0;
+	while (i < bytes.length) {
+	    ensure(1);
+	    int length = Math.min(bytes.length - i, buffer.remaining());
+	    buffer.put(bytes, i, length);
+	    i += length;
+	}
+	position += bytes.length;
+    }
+
+    // writes zeros up to offset, e.g. the rest of the header
+    public void padTo(long offset) throws IOException {
+	while (position < offset)
+	    putByte(0);
+    }
+
+    public void finish() throws IOException {
+	flush();
+	Snapshot.commit(channel, temporary, path);
+	finished = true;
+    }
+
+    public void close() throws IOException {
+	if (finished)
+	    return;
+	channel.close();
+	Files.deleteIfExists(temporary);
+    }
+
+    private void ensure(int length) throws IOException {
+	if (buffer.remaining() < length)
+	    flush();
+    }
+
+    private void flush() throws IOException {
+	buffer.flip();
+	while (buffer.hasRemaining())
+	    channel.write(buffer);
+	buffer.clear();
+    }
+}
@@ -0,0 +1,390 @@
+/**
+
+  ** CLASSES **
+  MappedWeetStore is a read only WeetStore that answers every method straight from a snapshot file mapped into memory, for read replicas that should start without loading anything.
+  write() saves a WeetStore in the fixed width format below, and the constructor maps the file with a MappedByteBuffer for every section.
+  A Weet object is only created when a method returns it, the rest of the Weets stay as bytes in the page cache, which every process that maps the same file shares.
+  addWeet() always returns false, which is how IWeetStore rejects a Weet, a new snapshot has to be written and mapped to add Weets.
+
+  ** FILE FORMAT **
+  The header is HEADER bytes: MAGIC, VERSION and Snapshot.MAPPED_WEETS, the number of Weets and topics, and the offset of every section.
+  records has one RECORD byte record per Weet in the order of getWeets(): the ID, user ID, date in milliseconds and the offset and length of the message.
+  idIndex has the ID and record number of every Weet, sorted by ID.
+  userIndex has the user ID and record number of every Weet, sorted by user ID and then record number, so the Weets of a user are in date order.
+  topics has the offset and length of the #trends of getTrending(TOPICS), most mentioned first.
+  heap has the messages and topics as UTF-8, the offsets of records and topics point into it.
+  Every number is big endian, the default of ByteBuffer, and has a fixed width, so record i is at RECORD * i without reading the records before it.
+
+  ** TIME AND MEMORY COMPLEXITY **
+  Opening a MappedWeetStore only reads the header and maps the file, O(1), the pages are read from the disk when they are first used.
+  getWeet() is a binary search in idIndex, O(logn), instead of O(1) in a hash table, because a hash table would have to be built when the file is opened.
+  getWeetsOn() and getWeetsBefore() find their first record with a binary search on the dates of records, O(logn + k) where k is the number of Weets returned.
+  getWeetsByUser() finds the first entry of the user in userIndex with a binary search, O(logn + k).
+  getWeetsContaining() compares the UTF-8 bytes of the query with every message in heap, O(n) times the length of a message, and only decodes the messages that match.
+  UTF-8 never starts a character in the middle of another one, so the bytes of a message contain the bytes of the query exactly when the message contains the query.
+  getTrending() reads at most TOPICS topics, O(10).
+  The heap memory of MappedWeetStore is O(1), the file is RECORD + 16 bytes per Weet plus the messages, and is held by the page cache instead.
+  A MappedByteBuffer is at most 2GB, so a section can not be larger than that, e.g. records holds up to 67 million Weets.
+
+  ** CONSISTENCY **
+  The file is never changed after it is mapped, because write() replaces a snapshot by moving a new file over it, and the old file stays mapped until it is not used.
+  Every read uses absolute positions or a duplicate() of a buffer, so any number of threads can read one MappedWeetStore without a lock.
+
+  ** REFERENCES **
+  MappedByteBuffer and FileChannel.map() from java.nio.
+
+ @author: u1500212
+ */
+
+package uk.ac.warwick.java.cs126.services;
+
+import uk.ac.warwick.java.cs126.models.User;
+import uk.ac.warwick.java.cs126.models.Weet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Date;
+
+public class MappedWeetStore implements IWeetStore {
+
+    static final int HEADER = 64;
+    static final int RECORD = 32;
+    static final int INDEX = 8;
+    static final int TOPIC = 12;
+    static final int TOPICS = 100; // number of #trends saved for getTrending()
+
+    private int n; // number of weets
+    private int topicCount;
+    private MappedByteBuffer records;
+    private MappedByteBuffer idIndex;
+    private MappedByteBuffer userIndex;
+    private MappedByteBuffer topics;
+    private MappedByteBuffer heap;
+
+    public MappedWeetStore(Path path) throws IOException {
+	try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+	    MappedByteBuffer header = Snapshot.map(channel, 0, HEADER);
+	    if (header.getInt(0) != Snapshot.MAGIC || header.get(5) != Snapshot.MAPPED_WEETS)
+		throw new IOException(path + " is not a snapshot of a MappedWeetStore");
+	    if (header.get(4) != Snapshot.VERSION)
+		throw new IOException(path + " has version " + header.get(4) + ", only version " + Snapshot.VERSION + " can be read");
+	    n = header.getInt(8);
+	    topicCount = header.getInt(12);
+	    if (n < 0 || topicCount < 0)
+		throw new IOException(path + " has an invalid number of records");
+
+	    // the mappings stay valid after the channel is closed
+	    records = Snapshot.map(channel, header.getLong(16), (long) RECORD * n);
+	    idIndex = Snapshot.map(channel, header.getLong(24), (long) INDEX * n);
+	    userIndex = Snapshot.map(channel, header.getLong(32), (long) INDEX * n);
+	    topics = Snapshot.map(channel, header.getLong(40), (long) TOPIC * topicCount);
+	    heap = Snapshot.map(channel, header.getLong(48), header.getLong(56));
+	}
+    }
+
+    /**
+      write() saves a WeetStore so that it can be opened as a MappedWeetStore.
+      1) Copy the Weets out of dateBST in the order of getWeets(), and encode every message as UTF-8 once to know the size of heap.
+      2) Pack the ID (or user ID) and record number of every Weet into a long, and sort the longs for idIndex and userIndex.
+      3) Write the header with the offset of every section, and then every section in order.
+    */
+
+    public static void write(WeetStore store, Path path) throws IOException {
+	Weet[] weets = store.dateBST.inOrderDates();
+	String[] trending = store.getTrending(TOPICS);
+	int count = weets.length;
+
+	byte[][] messages = new byte[count][];
+	long heapSize = 0;
+	for (int i = 0; i < count; i++) {
+	    messages[i] = weets[i].getMessage().getBytes(StandardCharsets.UTF_8);
+	    heapSize += messages[i].length;
+	}
+	byte[][] topicBytes = new byte[trending.length][];
+	for (int i = 0; i < trending.length; i++) {
+	    topicBytes[i] = trending[i].getBytes(StandardCharsets.UTF_8);
+	    heapSize += topicBytes[i].length;
+	}
+
+	// the ID in the high 32 bits and the record number in the low 32 bits, so the longs sort by ID and then record number
+	long[] ids = new long[count];
+	long[] users = new long[count];
+	for (int i = 0; i < count; i++) {
+	    ids[i] = ((long) weets[i].getId() << 32) | i;
+	    users[i] = ((long) weets[i].getUserId() << 32) | i;
+	}
+	Arrays.sort(ids);
+	Arrays.sort(users);
+
+	long recordsOffset = HEADER;
+	long idIndexOffset = recordsOffset + (long) RECORD * count;
+	long userIndexOffset = idIndexOffset + (long) INDEX * count;
+	long topicsOffset = userIndexOffset + (long) INDEX * count;
+	long heapOffset = topicsOffset + (long) TOPIC * trending.length;
+
+	try (MappedSnapshotWriter out = new MappedSnapshotWriter(path)) {
+	    out.putInt(Snapshot.MAGIC);
+	    out.putByte(Snapshot.VERSION);
+	    out.putByte(Snapshot.MAPPED_WEETS);
+	    out.padTo(8);
+	    out.putInt(count);
+	    out.putInt(trending.length);
+	    out.putLong(recordsOffset);
+	    out.putLong(idIndexOffset);
+	    out.putLong(userIndexOffset);
+	    out.putLong(topicsOffset);
+	    out.putLong(heapOffset);
+	    out.putLong(heapSize);
+	    out.padTo(HEADER);
+
+	    long offset = 0;
+	    for (int i = 0; i < count; i++) {
+		out.putInt(weets[i].getId());
+		out.putInt(weets[i].getUserId());
+		out.putLong(weets[i].getDateWeeted().getTime());
+		out.putLong(offset);
+		out.putInt(messages[i].length);
+		out.putInt(0);
+		offset += messages[i].length;
+	    }
+	    for (int i = 0; i < count; i++) {
+		out.putInt((int) (ids[i] >>> 32));
+		out.putInt((int) ids[i]);
+	    }
+	    for (int i = 0; i < count; i++) {
+		out.putInt((int) (users[i] >>> 32));
+		out.putInt((int) users[i]);
+	    }
+	    for (int i = 0; i < trending.length; i++) {
+		out.putLong(offset);
+		out.putInt(topicBytes[i].length);
+		offset += topicBytes[i].length;
+	    }
+	    for (int i = 0; i < count; i++) {
+		out.putBytes(messages[i]);
+	    }
+	    for (int i = 0; i < trending.length; i++) {
+		out.putBytes(topicBytes[i]);
+	    }
+	    out.finish();
+	}
+    }
+
+    // the store is read only, so every Weet is rejected
+    public boolean addWeet(Weet weet) {
+	return false;
+    }
+
+    // binary search in idIndex
+    public Weet getWeet(int wid) {
+	int low = 0, high = n - 1;
+	while (low <= high) {
+	    int middle = low + (high - low)/2;
+	    int id = idIndex.getInt(INDEX * middle);
+	    if (id < wid)
+		low = middle + 1;
+	    else if (id > wid)
+		high = middle - 1;
+	    else
+		return weet(idIndex.getInt(INDEX * middle + 4));
+	}
+	return null;
+    }
+
+    /**
+      records are in the order of getWeets(), most recent first, so every method that returns Weets in date order copies a range of records.
+      The ranges are found with a binary search on the dates, which only reads the 8 bytes of the date of each record it checks.
+    */
+
+    public Weet[] getWeets() {
+	return weets(0, n, n);
+    }
+
+    public Weet[] getWeetsOn(Date dateOn) {
+	long date = dateOn.getTime();
+	return weets(firstRecord(date, true), firstRecord(date, false), n);
+    }
+
+    public Weet[] getWeetsBefore(Date dateBefore) {
+	return weets(firstRecord(dateBefore.getTime(), false), n, n);
+    }
+
+    // one page of a timeline, the same as WeetStore.getWeetsBefore(Date, int)
+    public Weet[] getWeetsBefore(Date before, int limit) {
+	return weets(firstRecord(before.getTime(), false), n, limit);
+    }
+
+    // the page after the Weet afterId with the date before, the same as WeetStore.getWeetsBefore(Date, int, int)
+    public Weet[] getWeetsBefore(Date before, int afterId, int limit) {
+	long date = before.getTime();
+	int first = firstRecord(date, false);
+	for (int i = firstRecord(date, true); i < first; i++) {
+	    if (records.getInt(RECORD * i) == afterId) {
+		first = i + 1;
+		break;
+	    }
+	}
+	return weets(first, n, limit);
+    }
+
+    public Weet[] getWeetsByUser(User usr) {
+	int first = firstUserEntry(usr.getId());
+	int end = firstUserEntry(usr.getId() + 1L);
+	return userWeets(first, end, end - first);
+    }
+
+    public Weet[] getWeetsByUser(User usr, Date before, int limit) {
+	int first = firstUserEntry(usr.getId());
+	int end = firstUserEntry(usr.getId() + 1L);
+	return userWeets(firstUserEntry(first, end, before.getTime(), false), end, limit);
+    }
+
+    // the same as WeetStore.getWeetsByUser(User, Date, int, int)
+    public Weet[] getWeetsByUser(User usr, Date before, int afterId, int limit) {
+	int first = firstUserEntry(usr.getId());
+	int end = firstUserEntry(usr.getId() + 1L);
+	long date = before.getTime();
+	int start = firstUserEntry(first, end, date, false);
+	for (int i = firstUserEntry(first, end, date, true); i < start; i++) {
+	    if (records.getInt(RECORD * userIndex.getInt(INDEX * i + 4)) == afterId) {
+		start = i + 1;
+		break;
+	    }
+	}
+	return userWeets(start, end, limit);
+    }
+
+    public Weet[] getWeetsContaining(String query) {
+	byte[] pattern = query.getBytes(StandardCharsets.UTF_8);
+	Weet[] array = new Weet[16];
+	int count = 0;
+	for (int i = 0; i < n; i++) {
+	    if (messageContains(i, pattern)) {
+		if (count == array.length)
+		    array = Arrays.copyOf(array, 2 * count);
+		array[count++] = weet(i);
+	    }
+	}
+	return Arrays.copyOf(array, count);
+    }
+
+    public String[] getTrending() {
+	return getTrending(10);
+    }
+
+    // only the first TOPICS #trends were saved, so k is at most TOPICS
+    public String[] getTrending(int k) {
+	String[] array = new String[Math.max(0, Math.min(k, topicCount))];
+	for (int i = 0; i < array.length; i++) {
+	    array[i] = string(topics.getLong(TOPIC * i), topics.getInt(TOPIC * i + 8));
+	}
+	return array;
+    }
+
+    public int size() {
+	return n;
+    }
+
+    /**
+     Additional methods.
+    */
+
+    // creates the Weet of record i, this is the only place a Weet is created
+    private Weet weet(int i) {
+	int position = RECORD * i;
+	String message = string(records.getLong(position + 16), records.getInt(position + 24));
+	return new Weet(records.getInt(position), records.getInt(position + 4), message, new Date(records.getLong(position + 8)));
+    }
+
+    private long date(int i) {
+	return records.getLong(RECORD * i + 8);
+    }
+
+    // at most limit Weets of the records from first to end
+    private Weet[] weets(int first, int end, int limit) {
+	Weet[] array = new Weet[Math.max(0, Math.min(limit, end - first))];
+	for (int i = 0; i < array.length; i++) {
+	    array[i] = weet(first + i);
+	}
+	return array;
+    }
+
+    // at most limit Weets of the userIndex entries from first to end
+    private Weet[] userWeets(int first, int end, int limit) {
+	Weet[] array = new Weet[Math.max(0, Math.min(limit, end - first))];
+	for (int i = 0; i < array.length; i++) {
+	    array[i] = weet(userIndex.getInt(INDEX * (first + i) + 4));
+	}
+	return array;
+    }
+
+    // the first record on or before the date if inclusive, otherwise the first record before it
+    private int firstRecord(long date, boolean inclusive) {
+	int low = 0, high = n;
+	while (low < high) {
+	    int middle = low + (high - low)/2;
+	    long d = date(middle);
+	    if (d > date || (!inclusive && d == date))
+		low = middle + 1;
+	    else
+		high = middle;
+	}
+	return low;
+    }
+
+    // the first entry of userIndex with a user ID of at least uid, uid is a long so that the ID after Integer.MAX_VALUE can be searched
+    private int firstUserEntry(long uid) {
+	int low = 0, high = n;
+	while (low < high) {
+	    int middle = low + (high - low)/2;
+	    if (userIndex.getInt(INDEX * middle) < uid)
+		low = middle + 1;
+	    else
+		high = middle;
+	}
+	return low;
+    }
+
+    // the entries of a user are in date order, so this is the same binary search as firstRecord() in the entries from first to end
+    private int firstUserEntry(int first, int end, long date, boolean inclusive) {
+	int low = first, high = end;
+	while (low < high) {
+	    int middle = low + (high - low)/2;
+	    long d = date(userIndex.getInt(INDEX * middle + 4));
+	    if (d > date || (!inclusive && d == date))
+		low = middle + 1;
+	    else
+		high = middle;
+	}
+	return low;
+    }
+
+    // decodes length bytes of heap from offset, duplicate() gives this thread its own position
+    private String string(long offset, int length) {
+	ByteBuffer bytes = heap.duplicate();
+	bytes.position((int) offset);
+	byte[] array = new byte[length];
+	bytes.get(array);
+	return new String(array, StandardCharsets.UTF_8);
+    }
+
+    // compares the bytes of the message of record i with the pattern at every position, without decoding the message
+    private boolean messageContains(int i, byte[] pattern) {
+	int start = (int) records.getLong(RECORD * i + 16);
+	int length = records.getInt(RECORD * i + 24);
+	for (int j = 0; j + pattern.length <= length; j++) {
+	    int k = 0;
+	    while (k < pattern.length && heap.get(start + j + k) == pattern[k])
+		k++;
+	    if (k == pattern.length)
+		return true;
+	}
+	return false;
+    }
+}
@@ -0,0 +1,74 @@
+/**
+  Snapshot is the binary file format used by save() and load() of WeetStore, UserStore and FollowerStore.
+  SnapshotWriter in SnapshotWriter.java writes a snapshot and SnapshotReader in SnapshotReader.java reads one, both stream through a FileChannel with one ByteBuffer, so a file is never read or written one byte per call.
+
+  A snapshot starts with a header: MAGIC, VERSION, the kind of store and the number of records.
+  Every record starts with its length, so a reader can check that a record is complete and skip fields it does not know.
+  Numbers are varints, 7 bits per byte with the high bit set when another byte follows, so a small number only takes one byte.
+  Ids and dates are written as the difference to the previous record, zigzag encoded so a negative difference is also small.
+  Dates are milliseconds since the epoch, the same as Date.getTime(), and Strings are a length followed by UTF-8 bytes.
+
+  SnapshotWriter writes to a temporary file next to the snapshot and only moves it over the snapshot in finish().
+  MappedWeetStore and MappedFollowerStore write their own fixed width format with MappedSnapshotWriter in MappedSnapshotWriter.java, but replace their files the same way with temporary() and commit().
+  A save that fails half way, e.g. because the process dies, leaves the old snapshot as it was.
+
+  ** REFERENCES **
+  Varints and zigzag encoding from https://developers.google.com/protocol-buffers/docs/encoding
+
+ @author: u1500212
+ */
+
+package uk.ac.warwick.java.cs126.services;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+class Snapshot {
+    static final int MAGIC = 0x57454554; // "WEET"
+    static final int VERSION = 1;
+
+    // the kind of store a snapshot was saved from
+    static final int WEETS = 1;
+    static final int USERS = 2;
+    static final int FOLLOWERS = 3;
+    static final int MAPPED_WEETS = 4;
+    static final int MAPPED_FOLLOWERS = 5;
+    static final int LOG = 6;
+
+    static final int BUFFER_SIZE = 1 << 16;
+    static final int MAX_RECORD = 1 << 28; // a longer record means the file is corrupt
+
+    // the file a snapshot is written to before it is moved over path
+    static Path temporary(Path path) {
+	return path.resolveSibling(path.getFileName() + ".tmp");
+    }
+
+    // forces a finished temporary file to the disk and moves it over path in one step
+    static void commit(FileChannel channel, Path temporary, Path path) throws IOException {
+	channel.force(true);
+	channel.close();
+	Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // maps size bytes of the file from offset read only, a MappedByteBuffer can not be longer than Integer.MAX_VALUE
+    static MappedByteBuffer map(FileChannel channel, long offset, long size) throws IOException {
+	if (offset < 0 || size < 0 || offset + size > channel.size())
+	    throw new IOException("snapshot is shorter than its header says");
+	if (size > Integer.MAX_VALUE)
+	    throw new IOException("a section of " + size + " bytes is too large to map");
+	return channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+    }
+
+    // zigzag encoding maps 0, -1, 1, -2, 2... to 0, 1, 2, 3, 4...
+    static long encodeZigZag(long value) {
+	return (value << 1) ^ (value >> 63);
+    }
+
+    static long decodeZigZag(long value) {
+	return (value >>> 1) ^ -(value & 1);
+    }
+}
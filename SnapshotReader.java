@@ -0,0 +1,143 @@
+/**
+  SnapshotReader reads a snapshot written by SnapshotWriter, for load() in WeetStore, UserStore and FollowerStore.
+  startRecord() reads the length of a record and makes sure the whole record is in buffer, so the fields can be read without checking for the end of buffer.
+  endRecord() skips any fields that were not read, which a later VERSION could add at the end of a record.
+
+ @author: u1500212
+ */
+
+package uk.ac.warwick.java.cs126.services;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+class SnapshotReader implements Closeable {
+    private FileChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(Snapshot.BUFFER_SIZE);
+    private int count; // number of records in the header
+    private int recordEnd; // position in buffer after the current record
+
+    public SnapshotReader(Path path, int kind) throws IOException {
+	channel = FileChannel.open(path, StandardOpenOption.READ);
+	buffer.flip();
+	try {
+	    readHeader(path, kind);
+	} catch (IOException e) {
+	    channel.close();
+	    throw e;
+	}
+    }
+
+    private void readHeader(Path path, int kind) throws IOException {
+	fill(6);
+	if (buffer.getInt() != Snapshot.MAGIC)
+	    throw new IOException(path + " is not a snapshot");
+	int version = buffer.get();
+	if (version != Snapshot.VERSION)
+	    throw new IOException(path + " has version " + version + ", only version " + Snapshot.VERSION + " can be read");
+	int fileKind = buffer.get();
+	if (fileKind != kind)
+	    throw new IOException(path + " is a snapshot of a different store");
+
+	long records = readHeaderVarLong();
+	if (records < 0 || records > Integer.MAX_VALUE)
+	    throw new IOException(path + " has an invalid number of records");
+	count = (int) records;
+    }
+
+    // the number of records in the snapshot
+    public int count() {
+	return count;
+    }
+
+    public void startRecord() throws IOException {
+	long length = readHeaderVarLong();
+	if (length < 0 || length > Snapshot.MAX_RECORD)
+	    throw new IOException("invalid record length " + length);
+	fill((int) length);
+	recordEnd = buffer.position() + (int) length;
+    }
+
+    public long readVarLong() throws IOException {
+	long value = 0;
+	for (int shift = 0; shift < 64; shift += 7) {
+	    if (buffer.position() >= recordEnd)
+		throw new IOException("record is too short");
+	    byte b = buffer.get();
+	    value |= (long) (b & 0x7F) << shift;
+	    if (b >= 0)
+		return value;
+	}
+	throw new IOException("varint is too long");
+    }
+
+    public long readSignedVarLong() throws IOException {
+	return Snapshot.decodeZigZag(readVarLong());
+    }
+
+    public String readString() throws IOException {
+	long length = readVarLong();
+	if (length < 0 || length > recordEnd - buffer.position())
+	    throw new IOException("record is too short");
+	byte[] bytes = new byte[(int) length];
+	buffer.get(bytes);
+	return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public void endRecord() {
+	buffer.position(recordEnd);
+    }
+
+    // checks that nothing follows the last record
+    public void finish() throws IOException {
+	buffer.compact();
+	boolean more = buffer.position() > 0 || channel.read(buffer) > 0;
+	buffer.flip();
+	if (more)
+	    throw new IOException("snapshot has data after the last record");
+    }
+
+    public void close() throws IOException {
+	channel.close();
+    }
+
+    // reads a varint outside of a record, filling buffer one byte at a time near its end
+    private long readHeaderVarLong() throws IOException {
+	long value = 0;
+	for (int shift = 0; shift < 64; shift += 7) {
+	    fill(1);
+	    byte b = buffer.get();
+	    value |= (long) (b & 0x7F) << shift;
+	    if (b >= 0)
+		return value;
+	}
+	throw new IOException("varint is too long");
+    }
+
+    // reads from the channel until at least length bytes are left in buffer, doubling it for a large record
+    private void fill(int length) throws IOException {
+	if (buffer.remaining() >= length)
+	    return;
+	if (buffer.capacity() < length) {
+	    int capacity = buffer.capacity();
+	    while (capacity < length)
+		capacity *= 2;
+	    ByteBuffer newBuffer = ByteBuffer.allocateDirect(capacity);
+	    newBuffer.put(buffer);
+	    buffer = newBuffer;
+	} else {
+	    buffer.compact();
+	}
+	while (buffer.position() < length) {
+	    if (channel.read(buffer) < 0)
+		throw new EOFException("snapshot ends in the middle of a record");
+	}
+	buffer.flip();
+    }
+}
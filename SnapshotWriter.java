@@ -0,0 +1,125 @@
+/**
+  SnapshotWriter writes the binary snapshots of save() in WeetStore, UserStore and FollowerStore, the format is described in Snapshot.java.
+  It writes the fields of a record into record, and endRecord() copies the record after its length into buffer.
+  buffer is written to the FileChannel whenever it is full.
+
+ @author: u1500212
+ */
+
+package uk.ac.warwick.java.cs126.services;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+class SnapshotWriter implements Closeable {
+    private Path path;
+    private Path temporary;
+    private FileChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(Snapshot.BUFFER_SIZE);
+    private ByteBuffer record = ByteBuffer.allocate(256);
+    private int count; // number of records in the header
+    private int written; // number of records written so far
+    private boolean finished;
+
+    public SnapshotWriter(Path path, int kind, int count) throws IOException {
+	this.path = path;
+	this.count = count;
+	temporary = Snapshot.temporary(path);
+	channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+
+	buffer.putInt(Snapshot.MAGIC);
+	buffer.put((byte) Snapshot.VERSION);
+	buffer.put((byte) kind);
+	putVarLong(buffer, count);
+    }
+
+    public void writeVarLong(long value) {
+	ensureRecord(10);
+	putVarLong(record, value);
+    }
+
+    public void writeSignedVarLong(long value) {
+	writeVarLong(Snapshot.encodeZigZag(value));
+    }
+
+    public void writeString(String value) {
+	byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+	writeVarLong(bytes.length);
+	ensureRecord(bytes.length);
+	record.put(bytes);
+    }
+
+    // writes the length of the record and then the record
+    public void endRecord() throws IOException {
+	record.flip();
+	if (record.remaining() > Snapshot.MAX_RECORD)
+	    throw new IllegalArgumentException("record is longer than " + Snapshot.MAX_RECORD + " bytes");
+	if (buffer.remaining() < 5)
+	    flush();
+	putVarLong(buffer, record.remaining());
+
+	// a record larger than the space left is written in parts
+	while (record.hasRemaining()) {
+	    if (!buffer.hasRemaining())
+		flush();
+	    int length = Math.min(record.remaining(), buffer.remaining());
+	    ByteBuffer part = record.duplicate();
+	    part.limit(part.position() + length);
+	    buffer.put(part);
+	    record.position(record.position() + length);
+	}
+	record.clear();
+	written++;
+    }
+
+    // writes everything to the disk and replaces the snapshot at path with the new one
+    public void finish() throws IOException {
+	if (written != count)
+	    throw new IllegalStateException("the header says " + count + " records but " + written + " were written");
+	flush();
+	Snapshot.commit(channel, temporary, path);
+	finished = true;
+    }
+
+    // if finish() was not called the temporary file is deleted, so the old snapshot stays
+    public void close() throws IOException {
+	if (finished)
+	    return;
+	channel.close();
+	Files.deleteIfExists(temporary);
+    }
+
+    private void flush() throws IOException {
+	buffer.flip();
+	while (buffer.hasRemaining())
+	    channel.write(buffer);
+	buffer.clear();
+    }
+
+    // doubles record until length more bytes fit
+    private void ensureRecord(int length) {
+	if (record.remaining() >= length)
+	    return;
+	int capacity = record.capacity();
+	while (capacity - record.position() < length)
+	    capacity *= 2;
+	ByteBuffer newRecord = ByteBuffer.allocate(capacity);
+	record.flip();
+	newRecord.put(record);
+	record = newRecord;
+    }
+
+    private static void putVarLong(ByteBuffer target, long value) {
+	while ((value & ~0x7FL) != 0) {
+	    target.put((byte) ((value & 0x7F) | 0x80));
+	    value >>>= 7;
+	}
+	target.put((byte) value);
+    }
+}
@@ -0,0 +1,41 @@
+/**
+  TrendingEstimate is returned by WeetStore.getTrendingEstimates().
+  It stores a topic, the number of times it was mentioned, and how much that number can be too high.
+  The exact trending mode always has an error of 0.
+  In the approximate trending mode the true number of mentions is between getCount() - getError() and getCount().
+ 
+ @author: u1500212
+ */
+
+package uk.ac.warwick.java.cs126.services;
+
+public class TrendingEstimate {
+    private String topic;
+    private int count;
+    private int error;
+    
+    public TrendingEstimate(String topic, int count, int error) {
+	this.topic = topic;
+	this.count = count;
+	this.error = error;
+    }
+    
+    // get method
+    public String getTopic() {
+	return topic;
+    }
+    
+    // get method
+    public int getCount() {
+	return count;
+    }
+    
+    // get method
+    public int getError() {
+	return error;
+    }
+    
+    public String toString() {
+	return topic + " " + count + " (error " + error + ")";
+    }
+}
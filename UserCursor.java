@@ -0,0 +1,24 @@
+/**
+  UserCursor is returned by the cursor methods of UserStore, e.g. getUsersCursor().
+  It gives the same Users in the same order as the method that returns a User[], but one at a time.
+  The cursor only walks the tree or list as far as it is read, so a page of 20 Users costs about 20 steps instead of n.
+  UserStore should not be changed while a cursor is being read, the same as an Iterator.
+ 
+ @author: u1500212
+ */
+
+package uk.ac.warwick.java.cs126.services;
+
+import uk.ac.warwick.java.cs126.models.User;
+
+public interface UserCursor {
+    
+    // whether next() would return a User
+    public boolean hasNext();
+    
+    // returns the next User, or null when there are no more
+    public User next();
+    
+    // moves past the next k Users, returns the number that were skipped, which is less than k at the end
+    public int skip(int k);
+}
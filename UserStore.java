@@ -1,34 +1,42 @@
 /**
 
   ** CLASSES **
-  UserStore is implemented using 2 left leaning Red Black Binary Search Trees: useridBST and userdateBST. 
-  useridBST is used to store Users using their ID as the key, with the assumption that all ID's are unique.
+  UserStore is implemented using a hash table useridMap and a left leaning Red Black Binary Search Tree userdateBST.
+  useridMap is an IntHashMap used to store Users using their ID as the key, with the assumption that all ID's are unique.
   userdateBST is used to store Users using their Dates as the key.
-  A Queue is implemented to support methods that return an array of Users.
+  UserTrigramIndex stores a UserDateList for every 3 character substring (trigram) of a name, used by getUsersContaining().
+  UserDateList is an array of Users that is kept sorted by date, in the same order as userdateBST.
+  UserCursor is returned by the cursor methods, TraversalCursor walks userdateBST and ListCursor walks a UserDateList.
+  save() and load() write and read every User as a binary snapshot, using SnapshotWriter and SnapshotReader.
+  After setLog() every User that is added is also appended to a WriteAheadLog, which is replayed on top of the last snapshot when the store is restored.
  
   ** TIME AND MEMORY COMPLEXITY **
-  Using standard put() and get() methods from a Binary Search Tree, addUser() and getUser() has an average time complexity of O(logn).
-  Using an in-order traversal, getUsersContaining(), getUsersJoinedBefore() and getUsers() has an average time complexity of O(n) because it has to visit every node of Tree.
-  The inorder traversal works by using a Queue to enqueue any data that satisfies different conditions, followed by transfering the Queue into an array of Users.
-  For example, getUsersContaining() uses an in-order traversal and enqueues any data that contains the specific key word. 
-  The memory of UserStore is 2n, where 2n is the number of Users stored in useridBST and userdateBST, hence the memory complexity is O(n).
+  getUser() is a get() on useridMap, which is O(1) on average. addUser() also has to put the User into userdateBST, which is O(logn).
+  Using an in-order traversal, getUsers() has an average time complexity of O(n) because it has to visit every node of Tree.
+  load() reads a snapshot through a FileChannel in O(s) where s is the size of the file, and then adds the Users with bulkLoad().
+  bulkLoad() sorts the Users once with the merge sort of DateSort, O(nlogn) or O(n) if they are already in date order, and builds userdateBST bottom-up in O(n) instead of n inserts of O(logn).
+  getUsersJoinedBefore() skips the subtrees of userdateBST that only contain Users who joined on or after the date, which is O(logn + k) where k is the number of Users returned.
+  The inorder traversal is iterative, it keeps the path from the root in an array of at most 2logn nodes instead of recursing, and writes any data that satisfies different conditions straight into an array of Users.
+  getUsers() fills one array of size n, the other traversals append to an array that doubles when it is full, so no Queue node is created per User.
+  For example, getUsersJoinedBefore() uses an in-order traversal and appends any Users that joined before the date.
+  The cursor methods, e.g. getUsersCursor(), do the same traversal one User at a time, so reading the first k Users is O(logn + k) instead of O(n).
+  getUsersContaining() intersects the posting lists of the trigrams in the query in O(k1+k2+...), and then checks each candidate with contains().
+  The memory of UserStore is 2n+tn, where 2n is the number of Users stored in useridMap and userdateBST, and t is the average number of trigrams in a name stored in trigramIndex.
+  Names are short so t is a small constant, hence the memory complexity is O(n).
   
   ** BINARY SEARCH TREE **
   The main reason I chose a Self-Balancing Binary Search Tree is that it offers the scalability of an Array List while it has a relatively fast insertion and retrieval time complexity of Users. 
   If I had used an Array List instead, it may have the same level of scalability because both are unbounded and do not require a resize operation.
   However, the insertion/retrieval method in an Array List requires a linear search or a time complexity of O(n).
-  On the other hand, there are other data structures that offer faster insertion/retrieval methods such as a Hashmap.
-  Although a Hashmap's insertion/retrieval method has a constant time complexity of O(1), a Binary Search Tree does not require a resize operation or is vulnerable to key collisions.
-  This means that over a large data set of 500,000+, a Binary Search Tree can be more efficient because the cost of a Hashmap's resize operation will eventually become more costly than a Binary Search Tree's insertion/retrieval O(logn) time complexity.
+  The Binary Search Tree is still used for dates, because the in-order traversals need the Users sorted by date.
+  Looking up a User by ID does not need any order, so useridMap is a hash table with a constant time complexity of O(1) instead.
+  See IntHashMap.java for why this beats a tree keyed by Integer, and for the cost of resizing it.
   
   ** ADDITIONAL METHODS ** 
-  Apart from data structures, I implemented additional methods such as queueToWeetArray() for the last method getTrending().
-  I also implemented a Quicksort algorithm to sort an array of TrendingTopics.
-  Quicksort has a best case time complexity of O(n*logn).
+  Apart from data structures, I implemented a Traversal class in UserDateRedBlackBST that walks the tree with an explicit stack, so getUsersJoinedBefore() can start in the middle of the tree.
    
   ** REFERENCES ** 
   Red Black Binary Search Tree taken from http://algs4.cs.princeton.edu/33balanced/RedBlackLiteBST.java.html
-  Queue taken from http://algs4.cs.princeton.edu/13stacks/Queue.java.html
    
    
  * @author: u1500212
@@ -54,21 +62,30 @@ import java.util.Date;
 //Additional imports
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.nio.file.Path;
 
 public class UserStore implements IUserStore {
     
-    //create 2 Binary Search Trees
-    UserRedBlackBST<Integer> useridBST = new UserRedBlackBST<Integer>();
+    //create a hash table for ids and a Binary Search Tree for dates
+    IntHashMap<User> useridMap = new IntHashMap<User>();
     UserDateRedBlackBST userdateBST = new UserDateRedBlackBST();
+    UserTrigramIndex trigramIndex = new UserTrigramIndex();
     int size = 0;
+    WriteAheadLog log; // null if there is no log
     
     public UserStore() {
     }
 
+    // after setLog() every accepted add is appended to the log before it returns, replay() the log before calling it
+    public void setLog(WriteAheadLog log) {
+        this.log = log;
+    }
+
     /**
       addUser().
       1) check whether user already exists, if yes, return false.
-      2) add user into date and id Tree.
+      2) add user into the id hash table and the date Tree.
+      3) add user into the posting list of every trigram of its name.
     */
     
     public boolean addUser(User usr) {
@@ -76,11 +93,14 @@ public class UserStore implements IUserStore {
         int userid = usr.getId();
         Date date = usr.getDateJoined();
         
-        //if user does not exists yet, put into useridBST and userdateBST
+        //if user does not exists yet, put into useridMap and userdateBST
         if(getUser(userid) == null) {
-            useridBST.put(userid, usr);
+            if (log != null)
+                log.appendUser(usr);
+            useridMap.put(userid, usr);
             userdateBST.put(usr);
             size++;
+            trigramIndex.add(usr, size);
             return true;
         }
         // otherwise if it already exists, return false
@@ -88,61 +108,170 @@ public class UserStore implements IUserStore {
     }
     
     /**
-      Standard BST get method.
+      bulkLoad() adds many Users at once, e.g. when a store is restored, and returns the number that were added.
+      1) keep the first User of every ID, like addUser(), the seq of a User is its position among the kept Users.
+      2) sort the positions of the Users by date with a stable merge sort, so equal dates stay in seq order.
+      3) add the Users to the trigram posting lists oldest first, so every add is an append at the end.
+      4) build userdateBST from the sorted Users in O(n), instead of n inserts with rotations.
+      userdateBST can only be built when it is empty, so a store that already has Users adds them one at a time with addUser().
+    */
+    
+    public int bulkLoad(User[] users) {
+        if (size > 0) {
+            int added = 0;
+            for (User usr : users) {
+                if (addUser(usr))
+                    added++;
+            }
+            return added;
+        }
+        
+        // keep the first User of every ID, useridMap is only replaced after the log, so nothing is added if the log fails
+        IntHashMap<User> ids = new IntHashMap<User>(users.length);
+        User[] kept = new User[users.length];
+        int count = 0;
+        for (User usr : users) {
+            if (ids.get(usr.getId()) == null) {
+                ids.put(usr.getId(), usr);
+                kept[count++] = usr;
+            }
+        }
+        if (log != null)
+            log.appendUsers(kept, count);
+        useridMap = ids;
+        
+        // sort the positions by date, oldest first
+        long[] dates = new long[count];
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            dates[i] = kept[i].getDateJoined().getTime();
+            order[i] = i;
+        }
+        DateSort.sort(order, dates, count);
+        
+        // append to the posting lists oldest first, the seq of kept[i] is i + 1 like size in addUser()
+        for (int k = 0; k < count; k++) {
+            trigramIndex.add(kept[order[k]], order[k] + 1);
+        }
+        
+        // userdateBST is in order of most recent first, the highest seq first if dates are equal, which is order backwards
+        User[] inOrder = new User[count];
+        for (int k = 0; k < count; k++) {
+            inOrder[k] = kept[order[count - 1 - k]];
+        }
+        userdateBST.build(inOrder);
+        size = count;
+        return count;
+    }
+    
+    /**
+      Standard hash table get method, the id is not boxed into an Integer.
     */
     
     public User getUser(int uid) {
-        return useridBST.get(uid);
+        return useridMap.get(uid);
     }
 
     /** The following methods uses an inorder Traversal to visit all nodes from the Binary Search Tree.
-    * Since nodes are already sorted by order, I used a Queue to enqueue any data that satisfies each method's condition.
-    * I implemented a method called queueToUserArray to transfer the Queue into an array of Users.
+    * Since nodes are already sorted by order, the traversal writes any data that satisfies each method's condition straight into an array of Users.
     */
     
     public User[] getUsers() {
         // TODO
-        Queue<User> userQueue = userdateBST.inOrderUsers();
-        return queueToUserArray(userQueue);
+        return userdateBST.inOrderUsers();
     }
 
+    /**
+      getUsersContaining() only checks the Users that have every trigram of the query in their name, using trigramIndex.
+      Queries shorter than 3 characters have no trigrams, so every User is checked using an inorder traversal.
+    */
+    
     public User[] getUsersContaining(String query) {
-        // TODO
-        Queue<User> userQueue = userdateBST.inOrderUsersContaining(query);
-        return queueToUserArray(userQueue);
+        UserDateList candidates = trigramIndex.candidates(query);
+        if (candidates != null)
+            return candidates.toArrayContaining(query);
+        
+        return userdateBST.inOrderUsersContaining(query);
     }
 
     public User[] getUsersJoinedBefore(Date dateBefore) {
         // TODO
-        Queue<User> userQueue = userdateBST.inOrderUsersBefore(dateBefore);
-        return queueToUserArray(userQueue);
+        return userdateBST.inOrderUsersBefore(dateBefore);
     }
     
- 
     /**
-    * Additional method for in-order Traversal.
+      The cursor methods return the same Users as the methods above, in the same order, but they are only found when next() is called.
+      This lets a page of results be read without building the whole array, e.g. skip(40) and then next() 20 times for the third page.
     */
     
-    public User[] queueToUserArray(Queue<User> queue) {
-	// create an array of the size of the queue
-	int sizeOfArray = queue.size();
-	User[] userArray = new User[sizeOfArray];
-	
-	// dequeue into the array
-	for(int i = 0; i < sizeOfArray; i++) {
-	    userArray[i] = queue.dequeue();
-	}
-	
-	return userArray;
+    public UserCursor getUsersCursor() {
+        return userdateBST.cursor();
+    }
+    
+    public UserCursor getUsersContainingCursor(String query) {
+        UserDateList candidates = trigramIndex.candidates(query);
+        if (candidates != null)
+            return candidates.cursor(query);
+        return userdateBST.cursorContaining(query);
+    }
+    
+    public UserCursor getUsersJoinedBeforeCursor(Date dateBefore) {
+        return userdateBST.cursorBefore(dateBefore);
+    }
+    
+    /**
+      save() writes every User to a binary snapshot, see Snapshot for the format.
+      The Users are written oldest first, and the newest added first on the same date, which is getUsers() backwards.
+      load() reads a snapshot with bulkLoad(), which keeps equal dates in the order they were written, so a loaded store gives the same results as the saved one.
+      load() returns the number of Users that were added, Users whose ID is already in the store are skipped like in addUser().
+    */
+    
+    public void save(Path path) throws IOException {
+        User[] users = userdateBST.inOrderUsers();
+        try (SnapshotWriter out = new SnapshotWriter(path, Snapshot.USERS, users.length)) {
+            int lastId = 0;
+            long lastDate = 0;
+            for (int i = users.length - 1; i >= 0; i--) {
+                User usr = users[i];
+                long date = usr.getDateJoined().getTime();
+                out.writeSignedVarLong((long) usr.getId() - lastId);
+                out.writeSignedVarLong(date - lastDate);
+                out.writeString(usr.getName());
+                out.endRecord();
+                lastId = usr.getId();
+                lastDate = date;
+            }
+            out.finish();
+        }
+    }
+    
+    public int load(Path path) throws IOException {
+        User[] users;
+        try (SnapshotReader in = new SnapshotReader(path, Snapshot.USERS)) {
+            users = new User[in.count()];
+            long id = 0;
+            long date = 0;
+            for (int i = 0; i < users.length; i++) {
+                in.startRecord();
+                id += in.readSignedVarLong();
+                date += in.readSignedVarLong();
+                String name = in.readString();
+                in.endRecord();
+                users[i] = new User(name, (int) id, new Date(date));
+            }
+            in.finish();
+        }
+        return bulkLoad(users);
     }
+    
 }
 
     /**
-     UserRedBlackBST and UserDateRedBlackBST are both similar classes.
-     The main difference is that UserDateRedBlackBST has more methods for in-order traversal and both uses different keys: ID and Date.
+     UserDateRedBlackBST stores Users using their Dates as the key, with methods for in-order traversal.
+     Users are found by their ID using an IntHashMap instead, which is in IntHashMap.java.
     */
 
-class UserRedBlackBST<Key extends Comparable<Key>> { 
+class UserDateRedBlackBST {
     
     private static final boolean RED = true;
     private static final boolean BLACK = false;
@@ -151,55 +280,81 @@ class UserRedBlackBST<Key extends Comparable<Key>> {
     private int n; // number of key value pairs
     
     private class Node {
-	private Key key;
 	private User user; // changed from Value to User
 	private Node left, right;
 	private boolean color;
 	
-	public Node(Key key, User user, boolean color) {
-	    this.key = key;
+	public Node(User user, boolean color) {
 	    this.user = user;
 	    this.color = color;
 	}
     }
     
-    public User get(Key key) {
-      return get(root, key);
-    }
+    /**
+      build() replaces the tree with the Users of an array that is already in the order of an in-order traversal, in O(n).
+      The array is split into a 2-3 tree with every leaf at the same depth h, a 3-node is stored as a black node with a red left child.
+      A 2-3 tree of height h holds between 2^h - 1 and 3^h - 1 Users, h is the lowest height that can hold every User.
+    */
     
-    public User get(Node x, Key key) {
-	while (x != null) { //while node is not empty
-	    int cmp = key.compareTo(x.key); // compare key with current node
-	    if (cmp < 0) 
-            x = x.left;
-	    else if (cmp > 0) 
-            x = x.right;
-	    else
-		return x.user;
+    public void build(User[] users) {
+	int height = 0;
+	long capacity = 0; // 3^height - 1
+	while (capacity < users.length) {
+	    height++;
+	    capacity = 3 * capacity + 2;
 	}
-	return null;
-    }
-    
-    public boolean contains(Key key) {
-	return get(key) != null;
+	root = build(users, 0, users.length - 1, height);
+	n = users.length;
+    }
+    
+    // builds users[lo..hi] into a tree of height h, which needs between 2^h - 1 and 3^h - 1 Users
+    private Node build(User[] users, int lo, int hi, int h) {
+	if (h == 0)
+	    return null;
+	int m = hi - lo + 1;
+	long childCapacity = 0; // 3^(h-1) - 1, the most Users a child can hold
+	for (int i = 1; i < h; i++) {
+	    childCapacity = 3 * childCapacity + 2;
+	}
+	
+	if (m - 1 <= 2 * childCapacity) {
+	    // 2-node: one black node with a child on each side
+	    int left = (m - 1)/2;
+	    Node x = new Node(users[lo + left], BLACK);
+	    x.left = build(users, lo, lo + left - 1, h - 1);
+	    x.right = build(users, lo + left + 1, hi, h - 1);
+	    return x;
+	}
+	
+	// 3-node: a black node with a red left child, the three children share the other Users as evenly as possible
+	int first = (m - 2)/3;
+	int second = (m - 1)/3;
+	Node red = new Node(users[lo + first], RED);
+	Node x = new Node(users[lo + first + 1 + second], BLACK);
+	red.left = build(users, lo, lo + first - 1, h - 1);
+	red.right = build(users, lo + first + 1, lo + first + second, h - 1);
+	x.left = red;
+	x.right = build(users, lo + first + second + 2, hi, h - 1);
+	return x;
     }
     
-    public void put(Key key, User user) {
-	root = insert(root, key, user);
+    public void put(User user) {
+	root = insert(root, user);
 	root.color = BLACK;
     }
     
-    public Node insert(Node h, Key key, User user) {
+    public Node insert(Node h, User user) {
 	if (h == null) {
 	    n++;
-	    return new Node(key, user, RED); // RED node when inserted.
+	    return new Node(user, RED); // RED node when inserted.
 	}
 	
-	int cmp = key.compareTo(h.key);
-	if (cmp < 0)
-	    h.left = insert(h.left, key, user);
-	else if (cmp > 0)
-	    h.right = insert(h.right, key, user);
+	int cmp = user.getDateJoined().compareTo(h.user.getDateJoined());
+	// VERY IMPORTANT NOTE, changed to LESS THAN OR EQUALS, because possible for users to join on the same date!!
+	if (cmp >= 0) 
+	    h.left = insert(h.left, user);
+	else if (cmp < 0)
+	    h.right = insert(h.right, user);
 	else
 	    h.user = user;
 	
@@ -248,212 +403,497 @@ class UserRedBlackBST<Key extends Comparable<Key>> {
 	h.right.color = BLACK;
     }
     
-    public int size() {
-	return n;
+    /**
+    * Inorder traversal methods to fetch an array of Users.
+    * They do not use recursion, a Traversal keeps the path from the root in an array instead, so a deep tree cannot overflow the call stack.
+    * getUsers() knows it returns every User, so it fills one array of size n.
+    * The other methods do not know how many Users match, so they append to an array that doubles when it is full.
+    */
+    
+    public User[] inOrderUsers() {
+	User[] array = new User[n];
+	int count = 0;
+	Traversal traversal = new Traversal();
+	traversal.pushLeft(root);
+	for (Node x = traversal.next(); x != null; x = traversal.next()) {
+	    array[count++] = x.user;
+	}
+	return array;
     }
     
-    public boolean isEmpty() {
-	return n == 0;
+    //inorder traversal for getUsersContaining
+    public User[] inOrderUsersContaining(String query) {
+	return toArray(cursorContaining(query));
     }
+  
+    //inorder traversal for getUsersBefore
+    public User[] inOrderUsersBefore(Date date) {
+	return toArray(cursorBefore(date));
+    }
+    
+    /**
+    * Cursors walk the same traversals lazily, one User every time next() is called.
+    */
     
-    public int height() {
-	return height(root);
+    public UserCursor cursor() {
+	Traversal traversal = new Traversal();
+	traversal.pushLeft(root);
+	return new TraversalCursor(traversal, null);
     }
     
-    public int height(Node x) {
-	if (x == null)	
-	    return -1;
-	return 1 + Math.max(height(x.left), height(x.right));
-    }   
-}
-
-class UserDateRedBlackBST {
+    public UserCursor cursorContaining(String query) {
+	Traversal traversal = new Traversal();
+	traversal.pushLeft(root);
+	return new TraversalCursor(traversal, query);
+    }
     
-    private static final boolean RED = true;
-    private static final boolean BLACK = false;
+    // starts at the most recent User who joined before date, everyone after them in the traversal joined earlier
+    public UserCursor cursorBefore(Date date) {
+	Traversal traversal = new Traversal();
+	traversal.seekBefore(date);
+	return new TraversalCursor(traversal, null);
+    }
     
-    private Node root; // root of BST
-    private int n; // number of key value pairs
+    // appends every User left in the cursor to an array that doubles when it is full
+    private static User[] toArray(UserCursor cursor) {
+	User[] array = new User[16];
+	int count = 0;
+	for (User user = cursor.next(); user != null; user = cursor.next()) {
+	    if (count == array.length)
+		array = resize(array, 2 * count);
+	    array[count++] = user;
+	}
+	return resize(array, count);
+    }
     
-    private class Node {
-	private User user; // changed from Value to User
-	private Node left, right;
-	private boolean color;
+    // copies the first Users of array into a new array of the given length
+    private static User[] resize(User[] array, int length) {
+	if (array.length == length)
+	    return array;
+	User[] newArray = new User[length];
+	System.arraycopy(array, 0, newArray, 0, Math.min(array.length, length));
+	return newArray;
+    }
+    
+    /**
+      Traversal is an iterative in-order traversal, most recent User first.
+      The stack holds the nodes whose left subtree has been visited but not the node itself, which is at most one path from the root.
+      A left leaning red black tree has a height of at most 2logn, so the stack never has to grow.
+    */
+    
+    private class Traversal {
+	private Node[] stack = new Node[2 * (32 - Integer.numberOfLeadingZeros(n + 1)) + 1];
+	private int top = 0;
 	
-	public Node(User user, boolean color) {
-	    this.user = user;
-	    this.color = color;
+	// push x and every left child below it, the last one pushed is visited first
+	public void pushLeft(Node x) {
+	    while (x != null) {
+		stack[top++] = x;
+		x = x.left;
+	    }
+	}
+	
+	// push the path to the most recent User who joined before date
+	// dates in the left subtree are never older and dates in the right subtree are never more recent,
+	// so a node that did not join before date is skipped together with its left subtree
+	public void seekBefore(Date date) {
+	    Node x = root;
+	    while (x != null) {
+		if (x.user.getDateJoined().compareTo(date) < 0) {
+		    stack[top++] = x;
+		    x = x.left;
+		} else {
+		    x = x.right;
+		}
+	    }
+	}
+	
+	// returns the next node, or null when the traversal is finished
+	public Node next() {
+	    if (top == 0)
+		return null;
+	    Node x = stack[--top];
+	    pushLeft(x.right);
+	    return x;
 	}
     }
     
-    public void put(User user) {
-	root = insert(root, user);
-	root.color = BLACK;
-    }
+    /**
+      TraversalCursor reads a Traversal one User ahead, so hasNext() knows whether there is another match.
+      If query is set it skips the Users whose name does not contain it.
+    */
     
-    public Node insert(Node h, User user) {
-	if (h == null) {
-	    n++;
-	    return new Node(user, RED); // RED node when inserted.
+    private class TraversalCursor implements UserCursor {
+	private Traversal traversal;
+	private String query;
+	private User nextUser;
+	
+	public TraversalCursor(Traversal traversal, String query) {
+	    this.traversal = traversal;
+	    this.query = query;
+	    nextUser = find();
 	}
 	
-	int cmp = user.getDateJoined().compareTo(h.user.getDateJoined());
-	// VERY IMPORTANT NOTE, changed to LESS THAN OR EQUALS, because possible for users to join on the same date!!
-	if (cmp >= 0) 
-	    h.left = insert(h.left, user);
-	else if (cmp < 0)
-	    h.right = insert(h.right, user);
-	else
-	    h.user = user;
+	private User find() {
+	    for (Node x = traversal.next(); x != null; x = traversal.next()) {
+		if (query == null || x.user.getName().contains(query))
+		    return x.user;
+	    }
+	    return null;
+	}
 	
-	//fixes right leaning links
-	if (isRed(h.right) && !isRed(h.left)) // if right child red and left child black, rotate left
-	    h = rotateLeft(h);
-	if (isRed(h.left) && isRed(h.left.left))
-	    h = rotateRight(h);
-	if (isRed(h.left) && isRed(h.right))
-	    flipColors(h);
-	    
-	return h;
+	public boolean hasNext() {
+	    return nextUser != null;
+	}
+	
+	public User next() {
+	    User user = nextUser;
+	    if (user != null)
+		nextUser = find();
+	    return user;
+	}
+	
+	public int skip(int k) {
+	    int skipped = 0;
+	    while (skipped < k && nextUser != null) {
+		nextUser = find();
+		skipped++;
+	    }
+	    return skipped;
+	}
     }
+}
+
+/**
+  UserDateList stores a list of Users in the same order as an in-order traversal of userdateBST: most recent first.
+  Internally the array is kept oldest first, so that a User joining in date order is appended at the end in O(1).
+  Every User also stores the order it was added to UserStore (seq), Users with the same date are ordered by seq.
+  This matches userdateBST, where the newest added User comes first, and lets two lists be intersected in O(n+m).
+*/
+
+class UserDateList {
+    private User[] users;
+    private long[] dates; // dates joined as milliseconds
+    private int[] seqs; // order the users were added to the store
+    private int n; // number of users in the list
     
-    private boolean isRed(Node x) {
-	if (x == null) return false; //all nulls are black by default
-	return x.color == RED;
+    public UserDateList() {
+	this(4);
     }
     
-    private Node rotateRight(Node h) {
-	assert (h != null) && isRed(h.left);
-	Node x = h.left; // create new node x
-	h.left = x.right;
-	x.right = h;
-	x.color = h.color;
-	h.color = RED;
-	return x;
+    public UserDateList(int capacity) {
+	users = new User[Math.max(capacity, 1)];
+	dates = new long[users.length];
+	seqs = new int[users.length];
     }
     
-    private Node rotateLeft(Node h) {
-	assert (h != null) && isRed(h.right);
-	Node x = h.right;
-	h.right = x.left;
-	x.left = h;
-	x.color = h.color;
-	h.color = RED;
-	return x;
+    public void add(User user, int seq) {
+	long date = user.getDateJoined().getTime();
+	
+	// double the arrays when they are full
+	if (n == users.length)
+	    resize(2 * n);
+	
+	// find the first user that comes after the new user, check the end first
+	int position = n;
+	if (n > 0 && compare(n - 1, date, seq) > 0)
+	    position = upperBound(date, seq);
+	
+	// shift the more recent users up by one
+	System.arraycopy(users, position, users, position + 1, n - position);
+	System.arraycopy(dates, position, dates, position + 1, n - position);
+	System.arraycopy(seqs, position, seqs, position + 1, n - position);
+	users[position] = user;
+	dates[position] = date;
+	seqs[position] = seq;
+	n++;
+    }
+    
+    // compares the user at position i with a date and seq, oldest first
+    private int compare(int i, long date, int seq) {
+	if (dates[i] != date)
+	    return dates[i] < date ? -1 : 1;
+	if (seqs[i] != seq)
+	    return seqs[i] < seq ? -1 : 1;
+	return 0;
+    }
+    
+    // binary search for the first position that comes after date and seq
+    private int upperBound(long date, int seq) {
+	int low = 0, high = n;
+	while (low < high) {
+	    int middle = low + (high - low)/2;
+	    if (compare(middle, date, seq) <= 0)
+		low = middle + 1;
+	    else
+		high = middle;
+	}
+	return low;
     }
     
-    //pre condition two children are red, node is black
-    //post condition two children are black, node is reduce
-    private void flipColors(Node h) {
-	assert !isRed(h) && isRed(h.left) && isRed(h.right);
-	h.color = RED;
-	h.left.color = BLACK;
-	h.right.color = BLACK;
+    private void resize(int capacity) {
+	User[] newUsers = new User[capacity];
+	long[] newDates = new long[capacity];
+	int[] newSeqs = new int[capacity];
+	System.arraycopy(users, 0, newUsers, 0, n);
+	System.arraycopy(dates, 0, newDates, 0, n);
+	System.arraycopy(seqs, 0, newSeqs, 0, n);
+	users = newUsers;
+	dates = newDates;
+	seqs = newSeqs;
     }
     
-    /**
-    * Inorder traversal methods to fetch an array of Users.
-    */
+    public int size() {
+	return n;
+    }
     
-    public Queue<User> inOrderUsers() {
-	Queue<User> queue = new Queue<User>();
-	inOrderUsers(root, queue);
-	return queue;
+    // copy the users whose name contains the query into an array, most recent first
+    public User[] toArrayContaining(String query) {
+	User[] matches = new User[n];
+	int count = 0;
+	for (int i = n - 1; i >= 0; i--) {
+	    if (users[i].getName().contains(query))
+		matches[count++] = users[i];
+	}
+	
+	User[] array = new User[count];
+	System.arraycopy(matches, 0, array, 0, count);
+	return array;
     }
     
-    private void inOrderUsers(Node x, Queue<User> queue) { 
-        if (x == null) return; 
-        
-        inOrderUsers(x.left, queue);
-        queue.enqueue(x.user);
-        inOrderUsers(x.right, queue); 
-    }       
+    // a cursor over the users whose name contains the query, most recent first
+    public UserCursor cursor(String query) {
+	return new ListCursor(query);
+    }
     
-    //inorder traversal for getUsersContaining
-    public Queue<User> inOrderUsersContaining(String query) {
-	Queue<User> queue = new Queue<User>();
-	inOrderUsersContaining(root, queue, query);
-	return queue;
+    // walks the array from the end, because the array is kept oldest first
+    private class ListCursor implements UserCursor {
+	private String query;
+	private int position; // position of the next user to return, -1 at the end
+	
+	public ListCursor(String query) {
+	    this.query = query;
+	    position = n - 1;
+	    find();
+	}
+	
+	// move position down to the next user whose name contains the query
+	private void find() {
+	    while (position >= 0 && !users[position].getName().contains(query)) {
+		position--;
+	    }
+	}
+	
+	public boolean hasNext() {
+	    return position >= 0;
+	}
+	
+	public User next() {
+	    if (position < 0)
+		return null;
+	    User user = users[position--];
+	    find();
+	    return user;
+	}
+	
+	public int skip(int k) {
+	    int skipped = 0;
+	    while (skipped < k && position >= 0) {
+		position--;
+		find();
+		skipped++;
+	    }
+	    return skipped;
+	}
     }
     
-    private void inOrderUsersContaining(Node x, Queue<User> queue, String query) { 
-        if (x == null) return; 
-        
-        inOrderUsersContaining(x.left, queue, query);
-	if(x.user.getName().contains(query))
-	    queue.enqueue(x.user);
-        inOrderUsersContaining(x.right, queue, query); 
-    }    
-  
-    //inorder traversal for getUsersBefore
-    public Queue<User> inOrderUsersBefore(Date date) {
-	Queue<User> queue = new Queue<User>();
-	inOrderUsersBefore(root, queue, date);
-	return queue;
+    // merges two lists like the merge step of Mergesort, keeping users that are in both, O(n+m)
+    public static UserDateList intersect(UserDateList a, UserDateList b) {
+	UserDateList result = new UserDateList(Math.min(a.n, b.n));
+	int i = 0, j = 0;
+	while (i < a.n && j < b.n) {
+	    int cmp = a.compare(i, b.dates[j], b.seqs[j]);
+	    if (cmp < 0) {
+		i++;
+	    } else if (cmp > 0) {
+		j++;
+	    } else {
+		result.users[result.n] = a.users[i];
+		result.dates[result.n] = a.dates[i];
+		result.seqs[result.n] = a.seqs[i];
+		result.n++;
+		i++;
+		j++;
+	    }
+	}
+	return result;
     }
+}
+
+/**
+  UserTrigramIndex is an n-gram index used by getUsersContaining().
+  trigramBST stores a UserDateList for every 3 character substring of a name, e.g. "alice" has "ali", "lic" and "ice".
+  If a name contains the query, then the name also contains every trigram of the query.
+  So the posting lists of the query's trigrams are intersected, starting with the shortest list, to find the candidates.
+  The candidates still have to be checked with contains(), e.g. "alicia" and "lice" share the trigram "lic".
+*/
+
+class UserTrigramIndex {
+    UserRedBlackLiteBST<String, UserDateList> trigramBST = new UserRedBlackLiteBST<String, UserDateList>();
     
-    private void inOrderUsersBefore(Node x, Queue<User> queue, Date date) {
-	if (x == null) return;
+    public void add(User user, int seq) {
+	String name = user.getName();
 	
-	inOrderUsersBefore(x.left, queue, date);
-	int cmp = x.user.getDateJoined().compareTo(date);
-	if(cmp < 0) {
-	    queue.enqueue(x.user);
+	for (int i = 0; i + 3 <= name.length(); i++) {
+	    String trigram = name.substring(i, i + 3);
+	    
+	    // a name like "aaaa" has the same trigram twice, only add it once
+	    if (name.indexOf(trigram) < i)
+		continue;
+	    
+	    UserDateList postings = trigramBST.get(trigram);
+	    if (postings == null) {
+		postings = new UserDateList();
+		trigramBST.put(trigram, postings);
+	    }
+	    postings.add(user, seq);
 	}
-	inOrderUsersBefore(x.right, queue, date);
+    }
+    
+    // returns null if the query is shorter than a trigram, UserStore then has to do a full traversal
+    public UserDateList candidates(String query) {
+	if (query.length() < 3)
+	    return null;
+	
+	// fetch the posting list of every trigram in the query
+	int count = query.length() - 2;
+	UserDateList[] lists = new UserDateList[count];
+	for (int i = 0; i < count; i++) {
+	    lists[i] = trigramBST.get(query.substring(i, i + 3));
+	    // if a trigram does not exist, nothing can match
+	    if (lists[i] == null)
+		return new UserDateList();
+	}
+	
+	// sort by size using insertion sort, there are only a few trigrams
+	for (int i = 1; i < count; i++) {
+	    for (int j = i; j > 0 && lists[j].size() < lists[j - 1].size(); j--) {
+		UserDateList temp = lists[j];
+		lists[j] = lists[j - 1];
+		lists[j - 1] = temp;
+	    }
+	}
+	
+	// intersect starting with the shortest list, the same trigram twice is only intersected once
+	UserDateList result = lists[0];
+	for (int i = 1; i < count && result.size() > 0; i++) {
+	    if (lists[i] != lists[i - 1])
+		result = UserDateList.intersect(result, lists[i]);
+	}
+	return result;
     }
 }
 
-  /**
-  * Queue used for inorder Traversal
-  */
+/**
+* Generic RedBlackBinarySearchTree used by UserTrigramIndex
+*/
+
+class UserRedBlackLiteBST<Key extends Comparable<Key>, Value> {
+
+    private static final boolean RED   = true;
+    private static final boolean BLACK = false;
 
-class Queue<Item>{
-    private Node<Item> first;    // beginning of queue
-    private Node<Item> last;     // end of queue
-    private int n;               // number of elements on queue
+    private Node root;     // root of the BST
+    private int n;         // number of key-value pairs in BST
 
-    // helper linked list class
-    private static class Node<Item> {
-        private Item item;
-        private Node<Item> next;
+    // BST helper node data type
+    private class Node {
+        private Key key;           // key
+        private Value val;         // associated data
+        private Node left, right;  // links to left and right subtrees
+        private boolean color;     // color of parent link
+
+        public Node(Key key, Value val, boolean color) {
+            this.key = key;
+            this.val = val;
+            this.color = color;
+        }
+    }
+    
+    public Value get(Key key) {
+        Node x = root;
+        while (x != null) {
+            int cmp = key.compareTo(x.key);
+            if      (cmp < 0) x = x.left;
+            else if (cmp > 0) x = x.right;
+            else              return x.val;
+        }
+        return null;
     }
 
-    public Queue() {
-        first = null;
-        last  = null;
-        n = 0;
+    public void put(Key key, Value val) {
+        root = insert(root, key, val);
+        root.color = BLACK;
     }
 
-    public boolean isEmpty() {
-        return first == null;
+    private Node insert(Node h, Key key, Value val) { 
+        if (h == null) {
+            n++;
+            return new Node(key, val, RED);
+        }
+
+        int cmp = key.compareTo(h.key);
+        if      (cmp < 0) h.left  = insert(h.left,  key, val); 
+        else if (cmp > 0) h.right = insert(h.right, key, val); 
+        else              h.val   = val;
+
+        // fix-up any right-leaning links
+        if (isRed(h.right) && !isRed(h.left))      h = rotateLeft(h);
+        if (isRed(h.left)  &&  isRed(h.left.left)) h = rotateRight(h);
+        if (isRed(h.left)  &&  isRed(h.right))     flipColors(h);
+
+        return h;
+    }
+    
+    // is node x red (and non-null) ?
+    private boolean isRed(Node x) {
+        if (x == null) return false;
+        return x.color == RED;
     }
 
-    public int size() {
-        return n;
+    // rotate right
+    private Node rotateRight(Node h) {
+        assert (h != null) && isRed(h.left);
+        Node x = h.left;
+        h.left = x.right;
+        x.right = h;
+        x.color = h.color;
+        h.color = RED;
+        return x;
     }
 
-    public Item peek() {
-        if (isEmpty()) throw new NoSuchElementException("Queue underflow");
-        return first.item;
+    // rotate left
+    private Node rotateLeft(Node h) {
+        assert (h != null) && isRed(h.right);
+        Node x = h.right;
+        h.right = x.left;
+        x.left = h;
+        x.color = h.color;
+        h.color = RED;
+        return x;
     }
 
-    public void enqueue(Item item) {
-        Node<Item> oldlast = last;
-        last = new Node<Item>();
-        last.item = item;
-        last.next = null;
-        if (isEmpty()) first = last;
-        else           oldlast.next = last;
-        n++;
+    // precondition: two children are red, node is black
+    // postcondition: two children are black, node is red
+    private void flipColors(Node h) {
+        assert !isRed(h) && isRed(h.left) && isRed(h.right);
+        h.color = RED;
+        h.left.color = BLACK;
+        h.right.color = BLACK;
     }
-    
-    public Item dequeue() {
-        if (isEmpty()) throw new NoSuchElementException("Queue underflow");
-        Item item = first.item;
-        first = first.next;
-        n--;
-        if (isEmpty()) last = null;   // to avoid loitering
-        return item;
+
+    // return number of key-value pairs in symbol table
+    public int size() {
+        return n;
     }
 }
@@ -0,0 +1,24 @@
+/**
+  WeetCursor is returned by the cursor methods of WeetStore, e.g. getWeetsCursor().
+  It gives the same Weets in the same order as the method that returns a Weet[], but one at a time.
+  The cursor only walks the tree or list as far as it is read, so a page of 20 Weets costs about 20 steps instead of n.
+  WeetStore should not be changed while a cursor is being read, the same as an Iterator.
+ 
+ @author: u1500212
+ */
+
+package uk.ac.warwick.java.cs126.services;
+
+import uk.ac.warwick.java.cs126.models.Weet;
+
+public interface WeetCursor {
+    
+    // whether next() would return a Weet
+    public boolean hasNext();
+    
+    // returns the next Weet, or null when there are no more
+    public Weet next();
+    
+    // moves past the next k Weets, returns the number that were skipped, which is less than k at the end
+    public int skip(int k);
+}
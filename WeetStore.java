@@ -1,37 +1,67 @@
 /**
 
   ** CLASSES **
-  WeetStore is implemented using 3 left leaning Red Black Binary Search Trees: idBST, dateBST and trendingBST. 
-  idBST is used to store Weets using their ID as the key, with the assumption that all ID's are unique.
+  WeetStore is implemented using 2 hash tables, idMap and userMap, and 2 left leaning Red Black Binary Search Trees, dateBST and trendingBST.
+  idMap is an IntHashMap used to store Weets using their ID as the key, with the assumption that all ID's are unique.
   dateBST is used to store Weets using their Dates as the key.
+  userMap is an IntHashMap used to store a WeetDateList for every user, using the user ID as the key.
+  WeetDateList is an array of one user's Weets that is kept sorted by date, so getWeetsByUser() does not need to search dateBST.
+  WeetTokenIndex is an inverted index that stores a WeetDateList for every word, used by getWeetsContaining().
   trendingBST is used to store a Key Value Pair called TrendingTopic, with the String as the key.
+  TrendingRanking keeps every TrendingTopic in a list of buckets, one bucket for every number of mentions, ordered by the number of mentions.
+  TrendingWindow counts the mentions of every topic per hour in a ring buffer, for getTrending() between two dates.
+  TrendingSketch is used instead of trendingBST, TrendingRanking and trendingWindow in the approximate trending mode, which uses a fixed amount of memory.
   TrendingTopics stores a String topic and int timesMentioned, for the last method getTrending().
-  A Queue is implemented to support methods that return an array of Weets.
+  HashtagScanner finds every #trend in a message, it is reused for every Weet so no Pattern or Matcher is created.
+  HashtagScanner is in its own file, HashtagScanner.java, because ConcurrentWeetStore uses it too.
+  save() and load() write and read every Weet as a binary snapshot, using SnapshotWriter and SnapshotReader.
+  After setLog() every Weet that is added is also appended to a WriteAheadLog, which is replayed on top of the last snapshot when the store is restored.
+  A Queue is implemented to join the posting lists of WeetTokenIndex two at a time.
+  WeetCursor is returned by the cursor methods, TraversalCursor walks dateBST and ListCursor walks a WeetDateList.
  
   ** TIME AND MEMORY COMPLEXITY **
-  Using standard put() and get() methods from a Binary Search Tree, addWeet() and getWeet() have an average time complexity of O(logn).
-  Using an in-order traversal, getWeets(), getWeetsByUser(), getWeetsContaining(), getWeetsOn(), getWeetsBefore() and getTrending() has an average time complexity of O(n) because it has to visit all nodes in the Binary Search Tree.
-  The in-order traversal works by using a Queue to enqueue any data that satisfies different conditions, followed by transfering the Queue into an array of Weets. 
-  For example, getWeetsByUser() uses an in-order traversal and enqueues any Weets that was written by a specific user.
-  The memory of WeetStore is 2n+m where 2n is the number of weets stored in idBST and dataBST and m is the number of Trending Topics stored in trendingBST, hence the memory complexity is O(n).
+  getWeet() is a get() on idMap, which is O(1) on average. addWeet() also has to put the Weet into dateBST, which is O(logn).
+  Using an in-order traversal, getWeets() has an average time complexity of O(n) because it has to visit all nodes in the Binary Search Tree.
+  addWeets() adds a batch of b Weets with one sort, adds the total of each #trend to trendingRanking once, and rebuilds dateBST in O(n + b) when that is cheaper than b inserts.
+  load() reads a snapshot through a FileChannel in O(s) where s is the size of the file, and then adds the Weets with bulkLoad().
+  bulkLoad() sorts the Weets once with the merge sort of DateSort, O(nlogn) or O(n) if they are already in date order, and builds dateBST bottom-up in O(n) instead of n inserts of O(logn).
+  getWeetsOn() and getWeetsBefore() only visit the subtrees of dateBST that can contain matching dates, which is O(logn + k) where k is the number of Weets returned.
+  The in-order traversal is iterative, it keeps the path from the root in an array of at most 2logn nodes instead of recursing, and writes any data that satisfies different conditions straight into an array of Weets.
+  getWeets() fills one array of size n, the other traversals append to an array that doubles when it is full, so no Queue node is created per Weet.
+  For example, getWeetsOn() uses an in-order traversal and appends any Weets that were weeted on the date.
+  The cursor methods, e.g. getWeetsCursor(), do the same traversal one Weet at a time, so reading the first k Weets is O(logn + k) instead of O(n).
+  getWeetsByUser() looks up the user's WeetDateList in userMap in O(1) and copies it out in O(k), where k is the number of Weets written by that user.
+  getWeetsBefore() and getWeetsByUser() with a limit find the date with a binary search or by walking down dateBST, and copy only one page, O(logn + limit).
+  With the ID of the last Weet of the page before, they also skip the Weets with the same date up to that Weet, O(logn + t + limit) where t is the number of Weets with that date.
+  Adding a Weet to a WeetDateList is usually an append because Weets mostly arrive in date order, otherwise a binary search finds its position.
+  getWeetsContaining() intersects the posting lists of the words in the query in O(k1+k2+...), and then checks each candidate with contains().
+  A query without whole words has to search the t words in tokenIndex instead, which is O(t) but t is much smaller than n.
+  A mention of a #trend moves its TrendingTopic up one bucket in TrendingRanking in O(1), so getTrending() only reads the first 10 topics of the highest buckets, O(10).
+  getTrending() between two dates adds up the hours of every topic in trendingWindow, O(m*h) where h is the number of hours between the dates.
+  trendingWindow only keeps the last week, so its memory is bounded by the number of topics mentioned in the last two weeks.
+  It still keeps a ring of counts for every one of those topics, so the approximate trending mode does not use it and getTrending() between two dates only works in the exact mode.
+  In the approximate trending mode, a mention updates a Count-Min Sketch and a Space-Saving summary in O(d), where d is the number of rows of the sketch.
+  Both have a fixed size, so the memory does not grow with the number of distinct #trends, and getTrendingEstimates() reports how far each count can be off.
+  The memory of WeetStore is 3n+w+m where 3n is the number of weets stored in idMap, dateBST and the WeetDateLists, w is the number of words stored in tokenIndex and m is the number of Trending Topics stored in trendingBST.
+  Every word of a Weet is also stored once in a posting list, so the memory complexity is O(n) times the average number of words in a Weet.
   
   ** BINARY SEARCH TREE **
   The main reason I chose a Self-Balancing Binary Search Tree is that it offers the scalability of an Array List while it has a relatively fast insertion and retrieval time complexity of Weets. 
   If I had used an Array List instead, it may have the same level of scalability because both are unbounded and do not require a resize operation.
   However, the insertion/retrieval method in an Array List requires a linear search or a time complexity of O(n).
-  On the other hand, there are other data structures that offer faster insertion/retrieval methods such as a Hashmap.
-  Although a Hashmap's insertion/retrieval method has a constant time complexity of O(1), a Binary Search Tree does not require a resize operation and is not vulnerable to key collisions.
-  This means that over a large data set of 500,000+, a Binary Search Tree can be more efficient because the cost of a Hashmap's resize operation will eventually become more costly than a Binary Search Tree's insertion/retrieval O(logn) time complexity.
+  The Binary Search Tree is still used for dates and #trends, because their traversals need the keys in order.
+  Looking up a Weet or a user by ID does not need any order, so idMap and userMap are hash tables with a constant time complexity of O(1) instead.
+  Why IntHashMap is faster than a tree keyed by Integer, even when it resizes, is in IntHashMap.java.
   
   ** ADDITIONAL METHODS ** 
-  Apart from data structures, I implemented additional methods such as queueToWeetArray() for the last method getTrending().
-  I also implemented a Quicksort algorithm to sort an array of TrendingTopics.
-  Quicksort has a best case time complexity of O(n*logn).
+  Apart from data structures, I implemented a Traversal class in WeetDateRedBlackBST that walks the tree with an explicit stack, so the traversals can start in the middle of the tree.
  
   ** REFERENCES **
   Red Black Binary Search Tree taken from http://algs4.cs.princeton.edu/33balanced/RedBlackLiteBST.java.html
   Queue taken from http://algs4.cs.princeton.edu/13stacks/Queue.java.html
-  QUICKSORT taken from //http://www.algolist.net/Algorithms/Sorting/Quicksort
+  TrendingRanking is based on the O(1) LFU cache bucket list from http://dhruvbird.com/lfu.pdf
+  Count-Min Sketch from Cormode and Muthukrishnan, "An Improved Data Stream Summary: The Count-Min Sketch and its Applications".
+  Space-Saving from Metwally, Agrawal and El Abbadi, "Efficient Computation of Frequent and Top-k Elements in Data Streams".
 
   
  @author: u1500212
@@ -56,26 +86,59 @@ import java.text.SimpleDateFormat;
 //Additional imports
 import java.util.Iterator;
 import java.util.NoSuchElementException;
-import java.util.regex.*;
+import java.nio.file.Path;
 
 
 public class WeetStore implements IWeetStore {
    
    
-    // create idBST, dateBST and trendingBST
-    WeetRedBlackLiteBST<Integer, Weet> idBST = new WeetRedBlackLiteBST<Integer, Weet>();
+    // create idMap, dateBST, userMap and trendingBST
+    IntHashMap<Weet> idMap = new IntHashMap<Weet>();
     WeetDateRedBlackBST dateBST = new WeetDateRedBlackBST();
+    IntHashMap<WeetDateList> userMap = new IntHashMap<WeetDateList>();
+    WeetTokenIndex tokenIndex = new WeetTokenIndex();
     WeetRedBlackLiteBST<String, TrendingTopics> trendingBST = new WeetRedBlackLiteBST<String, TrendingTopics>();
+    TrendingRanking trendingRanking = new TrendingRanking();
+    TrendingSketch trendingSketch; // only used in the approximate trending mode, instead of trendingBST
+    TrendingWindow trendingWindow;
+    HashtagScanner hashtagScanner = new HashtagScanner();
     int size = 0;
+    WriteAheadLog log; // null if there is no log
     
+    // by default the trending window keeps one week of hourly buckets
     public WeetStore() {
+        this(60 * 60 * 1000L, 7 * 24, false);
+    }
+    
+    // approximateTrending selects the approximate trending mode, which uses a fixed amount of memory for getTrending() but has no getTrending() between two dates
+    public WeetStore(boolean approximateTrending) {
+        this(60 * 60 * 1000L, 7 * 24, approximateTrending);
+    }
+    
+    // bucketMillis is the length of one bucket of the trending window, and buckets is the number of buckets kept
+    public WeetStore(long bucketMillis, int buckets) {
+        this(bucketMillis, buckets, false);
+    }
+    
+    public WeetStore(long bucketMillis, int buckets, boolean approximateTrending) {
+        trendingWindow = new TrendingWindow(bucketMillis, buckets);
+        if (approximateTrending)
+            trendingSketch = new TrendingSketch(TrendingSketch.DEFAULT_WIDTH, TrendingSketch.DEFAULT_DEPTH, TrendingSketch.DEFAULT_CAPACITY);
+    }
+
+    // after setLog() every accepted add is appended to the log before it returns, replay() the log before calling it
+    public void setLog(WriteAheadLog log) {
+        this.log = log;
     }
 
     /**
      addWeet()
      1) Check whether the ID already exists first, if yes, then return false.
-     2) Insert Weet into idBST and dateBST.
-     3) Check whether there is a #trend, if yes, add into trendingBST.
+     If there is a log, append the Weet to it before it is added, so an add that returned is never lost.
+     2) Insert Weet into idMap and dateBST.
+     3) Insert Weet into the user's WeetDateList, create one if it is the user's first Weet.
+     4) Insert Weet into the posting list of every token in its message.
+     5) Find every #trend in the message using hashtagScanner, and count each one using mention().
     */
     
     public boolean addWeet(Weet weet) {
@@ -88,165 +151,417 @@ public class WeetStore implements IWeetStore {
         if(getWeet(id) != null)
 	    return false; 
         
+        if (log != null)
+            log.appendWeet(weet);
+        
         // put weet in ID and Date Binary Search trees
-	idBST.put(id, weet); 
+	idMap.put(id, weet); 
 	dateBST.put(weet);
 	size++;
 	
-	// check whether there is a pattern using java.util.regex.*
-	Pattern pattern = Pattern.compile("#(\\w+|\\W+)");
-	Matcher match = pattern.matcher(weet.getMessage());
+	// put weet in the user's list, create the list if this is the first weet of the user
+	WeetDateList userWeets = userMap.get(weet.getUserId());
+	if (userWeets == null) {
+	    userWeets = new WeetDateList();
+	    userMap.put(weet.getUserId(), userWeets);
+	}
+	userWeets.add(weet, size);
+	
+	// put weet in the posting list of every word
+	tokenIndex.add(weet, size);
+	
+	// count every #trend in the message, creating a trend if it does not exists or updating the current one.
+	hashtagScanner.reset(weet.getMessage());
+	while (hashtagScanner.next()) {
+	    mention(hashtagScanner.hashtag(), date);
+	}
+	return true;
+    }
+    
+    /**
+     addWeets() adds a batch of Weets, and returns for every Weet whether it was added, the same as addWeet() would.
+     1) Keep the first Weet of every ID that is not in the store yet, the seq of a Weet is the same as if addWeet() was called for each one.
+     2) Count the #trends of the batch first, and then add each total to trendingBST and trendingRanking once, instead of once per mention.
+     3) Sort the kept Weets by date with a stable merge sort, so equal dates stay in seq order.
+     4) Add the Weets to the WeetDateLists oldest first, so a batch newer than the store is appended at the end.
+     5) Add the Weets to dateBST with putAll(), which inserts a small batch and rebuilds the tree for a large one.
+     Topics with the same count can be in a different order in getTrending() than with addWeet(), because the counts are added per topic.
+    */
+    
+    public boolean[] addWeets(Weet[] batch) {
+	return addBatch(batch, true);
+    }
+    
+    /**
+     bulkLoad() adds many Weets at once, e.g. when a store is restored, and returns the number that were added.
+     It is the same as addWeets(), but the #trends are counted one mention at a time in the order they were given.
+     So the trending results are exactly the same as calling addWeet() for each one, which a restored store needs.
+     On an empty store putAll() always builds dateBST in O(n), instead of n inserts with rotations.
+    */
+    
+    public int bulkLoad(Weet[] weets) {
+	boolean[] added = addBatch(weets, false);
+	int count = 0;
+	for (int i = 0; i < added.length; i++) {
+	    if (added[i])
+		count++;
+	}
+	return count;
+    }
+    
+    private boolean[] addBatch(Weet[] weets, boolean aggregateTrending) {
+	boolean[] added = new boolean[weets.length];
+	
+	// keep the first Weet of every ID that is not in the store yet
+	// the IDs of the batch are only put into idMap after the log, so nothing is added if the log fails, like addWeet()
+	IntHashMap<Weet> batchIds = new IntHashMap<Weet>(weets.length);
+	Weet[] kept = new Weet[weets.length];
+	int count = 0;
+	for (int i = 0; i < weets.length; i++) {
+	    if (idMap.get(weets[i].getId()) == null && batchIds.get(weets[i].getId()) == null) {
+		batchIds.put(weets[i].getId(), weets[i]);
+		kept[count++] = weets[i];
+		added[i] = true;
+	    }
+	}
+	if (log != null)
+	    log.appendWeets(kept, count);
+	if (idMap.size() == 0) {
+	    idMap = batchIds;
+	} else {
+	    for (int i = 0; i < count; i++) {
+		idMap.put(kept[i].getId(), kept[i]);
+	    }
+	}
+	
+	// count every #trend, either as totals of the batch or one mention at a time
+	if (aggregateTrending)
+	    mentionAll(kept, count);
+	else {
+	    for (int i = 0; i < count; i++) {
+		hashtagScanner.reset(kept[i].getMessage());
+		while (hashtagScanner.next()) {
+		    mention(hashtagScanner.hashtag(), kept[i].getDateWeeted());
+		}
+	    }
+	}
+	
+	// sort the positions by date, oldest first
+	long[] dates = new long[count];
+	int[] order = new int[count];
+	for (int i = 0; i < count; i++) {
+	    dates[i] = kept[i].getDateWeeted().getTime();
+	    order[i] = i;
+	}
+	DateSort.sort(order, dates, count);
+	
+	// append to the lists oldest first, the seq of kept[i] is size + i + 1 like size in addWeet()
+	for (int k = 0; k < count; k++) {
+	    int i = order[k];
+	    WeetDateList userWeets = userMap.get(kept[i].getUserId());
+	    if (userWeets == null) {
+		userWeets = new WeetDateList();
+		userMap.put(kept[i].getUserId(), userWeets);
+	    }
+	    userWeets.add(kept[i], size + i + 1);
+	    tokenIndex.add(kept[i], size + i + 1);
+	}
 	
-	// if there is a pattern, create a trend if it does not exists or update the current one.
-	if(match.find() == true) {
+	// dateBST is in order of most recent first, the highest seq first if dates are equal, which is order backwards
+	Weet[] inOrder = new Weet[count];
+	for (int k = 0; k < count; k++) {
+	    inOrder[k] = kept[order[count - 1 - k]];
+	}
+	dateBST.putAll(inOrder);
+	size += count;
+	return added;
+    }
+    
+    /**
+     mentionAll() counts the #trends of a batch of Weets in a tree of totals first, and then adds every total once.
+     A #trend mentioned m times in the batch moves up in trendingRanking once, past at most m buckets, instead of m times.
+     trendingWindow still gets every mention, because each one is counted in the bucket of its own date, but only in the exact trending mode like mention().
+    */
+    
+    private void mentionAll(Weet[] weets, int count) {
+	WeetRedBlackLiteBST<String, int[]> totals = new WeetRedBlackLiteBST<String, int[]>();
+	for (int i = 0; i < count; i++) {
+	    hashtagScanner.reset(weets[i].getMessage());
+	    while (hashtagScanner.next()) {
+		String word = hashtagScanner.hashtag();
+		int[] total = totals.get(word);
+		if (total == null)
+		    totals.put(word, new int[] { 1 });
+		else
+		    total[0]++;
+		if (trendingSketch == null)
+		    trendingWindow.add(word, weets[i].getDateWeeted());
+	    }
+	}
+	
+	String[] words = totals.keys(new String[totals.size()]);
+	for (String word : words) {
+	    int total = totals.get(word)[0];
+	    if (trendingSketch != null) {
+		trendingSketch.add(word, total);
+		continue;
+	    }
+	    TrendingTopics trending = trendingBST.get(word);
+	    if (trending == null) {
+		trending = new TrendingTopics(word);
+		trendingBST.put(word, trending);
+		trendingRanking.add(trending);
+		total--;
+	    }
+	    if (total > 0)
+		trendingRanking.increase(trending, total);
+	}
+    }
+    
+    /**
+     mention() counts one mention of a #trend.
+     In the approximate trending mode it only updates trendingSketch, otherwise trendingBST, trendingRanking and trendingWindow.
+    */
+    
+    private void mention(String word, Date date) {
+	if (trendingSketch != null) {
+	    trendingSketch.add(word);
+	} else {
 	    // check whether it exists
-	    String word = match.group();
 	    TrendingTopics trending = trendingBST.get(word);
 	    
 	    //if null, create one
 	    if (trending == null) {
 		TrendingTopics new_topic = new TrendingTopics(word);
 		trendingBST.put(new_topic.getTopic() , new_topic);
-	    // else just update it
+		trendingRanking.add(new_topic);
+	    // else just update it, which moves it up in the ranking
 	    } else {
-		trending.increaseTimesMentioned();
+		trendingRanking.increment(trending);
 	    }
+	    trendingWindow.add(word, date);
 	}
-	return true;
     }
     
     /**
       getWeet().
-      Standard BST get() method.
-      O(logn) time complexity.
+      Standard hash table get() method.
+      O(1) average time complexity.
     */
     
     public Weet getWeet(int wid) {
-	// Standard BST get() method
-        return idBST.get(wid);
+	// the id is not boxed into an Integer
+        return idMap.get(wid);
     }
     /**
     * The following methods uses an inorder Traversal to visit all nodes from the Binary Search Tree.
     * All nodes are already sorted by order, so no need to sort it using a sorting algorithm.
-    * I used a Queue to enqueue any data that satisfies each method's condition while doing the traversal.
-    * The reason I used a Queue is so that I can use the size() method later to create an array of that size.
-    * I implemented a method called queueToWeetArray to transfer the Queue into an array of Weets (Weet[]).
+    * The traversal writes any data that satisfies each method's condition straight into an array of Weets (Weet[]), without a Queue.
     * Note: getWeetsOn() only works for weets matching the exact date + time.
     */
     public Weet[] getWeets() {
-        Queue<Weet> weetQueue = dateBST.inOrderDates();
-        return queueToWeetArray(weetQueue);
+        return dateBST.inOrderDates();
     }
 
+    /**
+     getWeetsByUser() does not need a traversal, the user's WeetDateList is already sorted by date.
+    */
     public Weet[] getWeetsByUser(User usr) {
-        Queue<Weet> weetQueue = dateBST.inOrderUser(usr.getId());
-        return queueToWeetArray(weetQueue);
+        WeetDateList userWeets = userMap.get(usr.getId());
+        if (userWeets == null)
+            return new Weet[0];
+        return userWeets.toArray();
     }
 
+    /**
+     getWeetsContaining() only checks the Weets that share the words of the query, using tokenIndex.
+     If the query has no words, e.g. only punctuation, every Weet is checked using an inorder traversal.
+    */
     public Weet[] getWeetsContaining(String query) {
-        Queue<Weet> weetQueue = dateBST.inOrderContaining(query);
-        return queueToWeetArray(weetQueue);
+        WeetDateList candidates = tokenIndex.candidates(query);
+        if (candidates != null)
+            return candidates.toArrayContaining(query);
+        
+        return dateBST.inOrderContaining(query);
     }
 
     public Weet[] getWeetsOn(Date dateOn) {
-        Queue<Weet> weetQueue = dateBST.inOrderDateOn(dateOn);
-        return queueToWeetArray(weetQueue);
+        return dateBST.inOrderDateOn(dateOn);
     }
 
     public Weet[] getWeetsBefore(Date dateBefore) {
-        Queue<Weet> weetQueue = dateBST.inOrderDateBefore(dateBefore);
-        return queueToWeetArray(weetQueue);
-
+        return dateBST.inOrderDateBefore(dateBefore);
+    }
+    
+    /**
+      The methods with a limit return one page of a timeline, they start at the position of before in dateBST or in the user's WeetDateList, and stop after limit Weets, O(logn + limit).
+      Dates are only in seconds, so many Weets can have the same date as the last Weet of a page, and they are not before that date.
+      So the page after is found by passing the date and the ID of the last Weet, which continues right after that Weet in the same order.
+      If no Weet with that ID and date is in the store, the page starts at the first Weet before the date instead.
+    */
+    
+    public Weet[] getWeetsBefore(Date before, int limit) {
+        return dateBST.inOrderDateBefore(before, limit);
+    }
+    
+    public Weet[] getWeetsBefore(Date before, int afterId, int limit) {
+        Weet last = idMap.get(afterId);
+        if (last == null || last.getDateWeeted().getTime() != before.getTime())
+            return dateBST.inOrderDateBefore(before, limit);
+        return dateBST.inOrderAfter(last, limit);
+    }
+    
+    public Weet[] getWeetsByUser(User usr, Date before, int limit) {
+        WeetDateList userWeets = userMap.get(usr.getId());
+        if (userWeets == null)
+            return new Weet[0];
+        return userWeets.toArrayBefore(before, limit);
+    }
+    
+    public Weet[] getWeetsByUser(User usr, Date before, int afterId, int limit) {
+        WeetDateList userWeets = userMap.get(usr.getId());
+        if (userWeets == null)
+            return new Weet[0];
+        return userWeets.toArrayBefore(before, afterId, limit);
     }
+    
+    /**
+      The cursor methods return the same Weets as the methods above, in the same order, but they are only found when next() is called.
+      This lets a page of results be read without building the whole array, e.g. skip(40) and then next() 20 times for the third page.
+    */
+    
+    public WeetCursor getWeetsCursor() {
+        return dateBST.cursor();
+    }
+    
+    public WeetCursor getWeetsByUserCursor(User usr) {
+        WeetDateList userWeets = userMap.get(usr.getId());
+        if (userWeets == null)
+            userWeets = new WeetDateList();
+        return userWeets.cursor(null);
+    }
+    
+    public WeetCursor getWeetsContainingCursor(String query) {
+        WeetDateList candidates = tokenIndex.candidates(query);
+        if (candidates != null)
+            return candidates.cursor(query);
+        return dateBST.cursorContaining(query);
+    }
+    
+    public WeetCursor getWeetsOnCursor(Date dateOn) {
+        return dateBST.cursorOn(dateOn);
+    }
+    
+    public WeetCursor getWeetsBeforeCursor(Date dateBefore) {
+        return dateBST.cursorBefore(dateBefore);
+    }
+    
     /**
       getTrending()
-      1) Create an array of 10 TrendingTopics and fetch TrendingTopic Queue.
-      2) If trendingArray is less than 10, return null.
-      3) Sort the trendingArray using Quicksort O(n*logn).
-      4) Return an array of String.
+      1) Fetch the 10 TrendingTopics with the most mentions from trendingRanking, O(10).
+      2) Return an array of String, which is shorter than 10 if there are less than 10 topics.
     */
     
     public String[] getTrending() {
-        
-        //Create a Queue of TrendingTopics using an inorder traversal on trendingBST.
-        Queue<TrendingTopics> trendingQueue = new Queue<TrendingTopics>();
-        trendingQueue = trendingBST.inorderTraversal();
-        
-        // create an arbitrary array of 10 TrendingTopics.
-        TrendingTopics[] trendingArray = new TrendingTopics[10];
-        
-        //Transfer the Queue into an array
-        for (int i = 0; i < 10; i++) {
-	    trendingArray[i] = trendingQueue.dequeue();
-	    
-	    // if less than 10 values then return null
-	    if(trendingArray[i] == null) return null; 
-        }
-        
-        //Sort the array such that the Weet with the most times mentioned is first
-        quickSort(trendingArray, 0, 9);
+        return getTrending(10);
+    }
+    
+    public String[] getTrending(int k) {
+        TrendingTopics[] trendingArray;
+        if (trendingSketch != null)
+            trendingArray = trendingSketch.top(k);
+        else
+            trendingArray = trendingRanking.top(k);
         
         // transfers the trendingArray into a string array
-        String[] array = new String[10];
-        for (int i = 0; i < 10; i++) {
+        String[] array = new String[trendingArray.length];
+        for (int i = 0; i < trendingArray.length; i++) {
 	    array[i] = trendingArray[i].getTopic();
-	    System.out.println(array[i] + " has " + trendingArray[i].getTimesMentioned());
         }
         
         return array;
     }
     
     /**
-     Additional methods.
+      getTrendingEstimates() returns the same topics as getTrending() with their number of mentions.
+      In the approximate trending mode the count can be too high by up to getError(), otherwise the error is always 0.
     */
-    public Weet[] queueToWeetArray(Queue<Weet> queue) {
     
-	// create array of the size of the queue
-	int sizeOfArray = queue.size();
-	Weet[] weetArray = new Weet[sizeOfArray];
-	
-	
-	// dequeue into the array
-	for(int i = 0; i < sizeOfArray; i++) {
-	    weetArray[i] = queue.dequeue();
-	}
-	
-	return weetArray;
+    public TrendingEstimate[] getTrendingEstimates(int k) {
+        if (trendingSketch != null)
+            return trendingSketch.estimates(k);
+        
+        TrendingTopics[] trendingArray = trendingRanking.top(k);
+        TrendingEstimate[] array = new TrendingEstimate[trendingArray.length];
+        for (int i = 0; i < trendingArray.length; i++) {
+	    array[i] = new TrendingEstimate(trendingArray[i].getTopic(), trendingArray[i].getTimesMentioned(), 0);
+        }
+        return array;
     }
     
-    //http://www.algolist.net/Algorithms/Sorting/Quicksort
-    public static void quickSort(TrendingTopics[] array, int low, int high) {
-	// if its null, return and don't sort
-	if (array == null)
-	    return;
-	
-	//pick the pivot
-	int middle = low + (high - low)/2;
-	TrendingTopics pivot = array[middle];
-	
-	//make left < pivot and right > pivot
-	int i = low, j = high;
-	while (i <= j) {
-	    //compare times mentioned to sort.
-	    while(array[i].getTimesMentioned() > pivot.getTimesMentioned() )
-		i++;
-	    while(array[j].getTimesMentioned() < pivot.getTimesMentioned() )
-		j--;
-	    if (i <= j) {
-		TrendingTopics temp = array[i];
-		array[i] = array[j];
-		array[j] = temp;
-		i++;
-		j--;
-	    }   
-	}
-	
-	//recursively sort two sub parts
-	if (low < j)
-	    quickSort(array, low, j);
-	if (high > i)
-	    quickSort(array, i, high);
+    /**
+      getTrending() with dates only counts the mentions of Weets between from and to, using trendingWindow.
+      Dates are rounded to whole buckets, and mentions older than the window have already been removed.
+      The approximate trending mode does not keep trendingWindow, so it throws an IllegalStateException.
+    */
+    
+    public String[] getTrending(Date from, Date to, int k) {
+        if (trendingSketch != null)
+            throw new IllegalStateException("getTrending() between two dates needs the exact trending mode");
+        return trendingWindow.top(from, to, k);
+    }
+    
+    /**
+      save() writes every Weet to a binary snapshot, see Snapshot for the format.
+      The Weets are written in the order they were added, which is put back together from the seqs in the WeetDateLists of every user.
+      load() reads a snapshot with bulkLoad(), which counts the #trends in the same order, so a loaded store gives the same results as the saved one.
+      load() returns the number of Weets that were added, Weets whose ID is already in the store are skipped like in addWeet().
+    */
+    
+    public void save(Path path) throws IOException {
+        Weet[] weets = new Weet[size];
+        WeetDateList[] lists = userMap.values(new WeetDateList[userMap.size()]);
+        for (WeetDateList userWeets : lists) {
+            userWeets.copyBySeq(weets);
+        }
+        
+        try (SnapshotWriter out = new SnapshotWriter(path, Snapshot.WEETS, size)) {
+            int lastId = 0;
+            long lastDate = 0;
+            for (Weet weet : weets) {
+                long date = weet.getDateWeeted().getTime();
+                out.writeSignedVarLong((long) weet.getId() - lastId);
+                out.writeSignedVarLong(weet.getUserId());
+                out.writeSignedVarLong(date - lastDate);
+                out.writeString(weet.getMessage());
+                out.endRecord();
+                lastId = weet.getId();
+                lastDate = date;
+            }
+            out.finish();
+        }
+    }
+    
+    public int load(Path path) throws IOException {
+        Weet[] weets;
+        try (SnapshotReader in = new SnapshotReader(path, Snapshot.WEETS)) {
+            weets = new Weet[in.count()];
+            long id = 0;
+            long date = 0;
+            for (int i = 0; i < weets.length; i++) {
+                in.startRecord();
+                id += in.readSignedVarLong();
+                int userId = (int) in.readSignedVarLong();
+                date += in.readSignedVarLong();
+                String message = in.readString();
+                in.endRecord();
+                weets[i] = new Weet((int) id, userId, message, new Date(date));
+            }
+            in.finish();
+        }
+        return bulkLoad(weets);
     }
+    
 }
 
 /**
@@ -276,6 +591,86 @@ class WeetDateRedBlackBST {
 	}
     }
     
+    /**
+      putAll() adds Weets that are in the order of an in-order traversal, and were all added to WeetStore after the Weets in the tree.
+      A small batch is inserted one Weet at a time, O(blogn) for b Weets.
+      A batch that would take longer than O(n) is merged with the in-order traversal of the tree instead, and the tree is rebuilt in O(n + b).
+      In the merge a new Weet comes before an old Weet with the same date, the same as insert() where the newest added goes left.
+    */
+    
+    public void putAll(Weet[] weets) {
+	int logn = 32 - Integer.numberOfLeadingZeros(n);
+	if ((long) weets.length * logn < n) {
+	    // oldest first, so that Weets with the same date end up with the newest added first
+	    for (int i = weets.length - 1; i >= 0; i--) {
+		put(weets[i]);
+	    }
+	    return;
+	}
+	
+	Weet[] old = inOrderDates();
+	Weet[] merged = new Weet[old.length + weets.length];
+	int i = 0, j = 0;
+	for (int k = 0; k < merged.length; k++) {
+	    if (j == weets.length)
+		merged[k] = old[i++];
+	    else if (i == old.length || weets[j].getDateWeeted().compareTo(old[i].getDateWeeted()) >= 0)
+		merged[k] = weets[j++];
+	    else
+		merged[k] = old[i++];
+	}
+	build(merged);
+    }
+    
+    /**
+      build() replaces the tree with the Weets of an array that is already in the order of an in-order traversal, in O(n).
+      A left leaning red black tree is a 2-3 tree where a 3-node is a black node with a red left child.
+      So the array is split into a 2-3 tree with every leaf at the same depth h, which is then stored as black nodes and red left children.
+      A 2-3 tree of height h holds between 2^h - 1 and 3^h - 1 Weets, h is the lowest height that can hold every Weet.
+    */
+    
+    public void build(Weet[] weets) {
+	int height = 0;
+	long capacity = 0; // 3^height - 1
+	while (capacity < weets.length) {
+	    height++;
+	    capacity = 3 * capacity + 2;
+	}
+	root = build(weets, 0, weets.length - 1, height);
+	n = weets.length;
+    }
+    
+    // builds weets[lo..hi] into a tree of height h, which needs between 2^h - 1 and 3^h - 1 Weets
+    private Node build(Weet[] weets, int lo, int hi, int h) {
+	if (h == 0)
+	    return null;
+	int m = hi - lo + 1;
+	long childCapacity = 0; // 3^(h-1) - 1, the most Weets a child can hold
+	for (int i = 1; i < h; i++) {
+	    childCapacity = 3 * childCapacity + 2;
+	}
+	
+	if (m - 1 <= 2 * childCapacity) {
+	    // 2-node: one black node with a child on each side
+	    int left = (m - 1)/2;
+	    Node x = new Node(weets[lo + left], BLACK);
+	    x.left = build(weets, lo, lo + left - 1, h - 1);
+	    x.right = build(weets, lo + left + 1, hi, h - 1);
+	    return x;
+	}
+	
+	// 3-node: a black node with a red left child, the three children share the other Weets as evenly as possible
+	int first = (m - 2)/3;
+	int second = (m - 1)/3;
+	Node red = new Node(weets[lo + first], RED);
+	Node x = new Node(weets[lo + first + 1 + second], BLACK);
+	red.left = build(weets, lo, lo + first - 1, h - 1);
+	red.right = build(weets, lo + first + 1, lo + first + second, h - 1);
+	x.left = red;
+	x.right = build(weets, lo + first + second + 2, hi, h - 1);
+	return x;
+    }
+    
     public void put(Weet weet) {
 	root = insert(root, weet);
 	// set the root as black
@@ -353,92 +748,207 @@ class WeetDateRedBlackBST {
  
     /**
     * Inorder traversal methods to fetch an array of Weets.
+    * They do not use recursion, a Traversal keeps the path from the root in an array instead, so a deep tree cannot overflow the call stack.
+    * getWeets() knows it returns every Weet, so it fills one array of size n.
+    * The other methods do not know how many Weets match, so they append to an array that doubles when it is full.
     */
     
-    public Queue<Weet> inOrderDates() {
-	Queue<Weet> queue = new Queue<Weet>();
-	inOrderDates(root, queue);
-	return queue;
+    public Weet[] inOrderDates() {
+	Weet[] array = new Weet[n];
+	int count = 0;
+	Traversal traversal = new Traversal();
+	traversal.pushLeft(root);
+	for (Node x = traversal.next(); x != null; x = traversal.next()) {
+	    array[count++] = x.weet;
+	}
+	return array;
     }
     
-    private void inOrderDates(Node x, Queue<Weet> queue) { 
-        if (x == null) return; 
-        
-        inOrderDates(x.left, queue);
-	queue.enqueue(x.weet);
-        inOrderDates(x.right, queue); 
-    }      
+    //inorder traversal for getWeetsContaining
+    public Weet[] inOrderContaining(String query) {
+	return toArray(cursorContaining(query));
+    }
     
-    //inorder traversal for getWeetsByUser
-    public Queue<Weet> inOrderUser(int uid) {
-	Queue<Weet> queue = new Queue<Weet>();
-	inOrderUser(root, queue, uid);
-	return queue;
+    //inorder traversal for getWeetsOn
+    public Weet[] inOrderDateOn(Date date) {
+	return toArray(cursorOn(date));
     }
     
-    private void inOrderUser(Node x, Queue<Weet> queue, int uid) { 
-        if (x == null) return; 
-        
-        inOrderUser(x.left, queue, uid);
-        if (x.weet.getUserId() == uid) // if userID matches while traversing ERROR
-	  queue.enqueue(x.weet);
-        inOrderUser(x.right, queue, uid); 
+    //inorder traversal for getWeetsBefore
+    public Weet[] inOrderDateBefore(Date date) {
+	return toArray(cursorBefore(date));
     }
     
-    //inorder traversal for getWeetsContaining
-    public Queue<Weet> inOrderContaining(String query) {
-	Queue<Weet> queue = new Queue<Weet>();
-	inOrderContaining(root, queue, query);
-	return queue;
+    // the same traversal, but it stops after limit Weets, O(logn + limit)
+    public Weet[] inOrderDateBefore(Date date, int limit) {
+	return toArray(cursorBefore(date), limit);
     }
     
-    private void inOrderContaining(Node x, Queue<Weet> queue, String query) {
-	if (x == null) return;
-	
-	inOrderContaining(x.left, queue, query);
-	if(x.weet.getMessage().contains(query))
-	    queue.enqueue(x.weet);
-	inOrderContaining(x.right, queue, query);
+    // the page after the Weet last, which has to be in the tree, O(logn + t + limit) where t is the number of Weets with its date
+    public Weet[] inOrderAfter(Weet last, int limit) {
+	return toArray(cursorAfter(last), limit);
     }
     
-    //inorder traversal for getWeetsOn
-    public Queue<Weet> inOrderDateOn(Date date) {
-	Queue<Weet> queue = new Queue<Weet>();
-	inOrderDateOn(root, queue, date);
-	return queue;
+    /**
+    * Cursors walk the same traversals lazily, one Weet every time next() is called.
+    */
+    
+    public WeetCursor cursor() {
+	Traversal traversal = new Traversal();
+	traversal.pushLeft(root);
+	return new TraversalCursor(traversal, null, null);
     }
     
-    private void inOrderDateOn(Node x, Queue<Weet> queue, Date date) {
-	if (x == null) return;
-	
-	inOrderDateOn(x.left, queue, date);
-	int cmp = x.weet.getDateWeeted().compareTo(date);
-	if(cmp == 0) {
-	    queue.enqueue(x.weet);
-	    //System.out.println(x.weet.getDateWeeted());
+    public WeetCursor cursorContaining(String query) {
+	Traversal traversal = new Traversal();
+	traversal.pushLeft(root);
+	return new TraversalCursor(traversal, null, query);
+    }
+    
+    // starts at the most recent Weet that is not after date, and stops at the first Weet before it
+    public WeetCursor cursorOn(Date date) {
+	Traversal traversal = new Traversal();
+	traversal.seek(date, true);
+	return new TraversalCursor(traversal, date, null);
+    }
+    
+    // starts at the most recent Weet before date, everything after it in the traversal is older
+    public WeetCursor cursorBefore(Date date) {
+	Traversal traversal = new Traversal();
+	traversal.seek(date, false);
+	return new TraversalCursor(traversal, null, null);
+    }
+    
+    // starts right after last, the Weets with the same date that come before it in the traversal are skipped
+    public WeetCursor cursorAfter(Weet last) {
+	Traversal traversal = new Traversal();
+	traversal.seek(last.getDateWeeted(), true);
+	Node x = traversal.next();
+	while (x != null && x.weet.getId() != last.getId())
+	    x = traversal.next();
+	return new TraversalCursor(traversal, null, null);
+    }
+    
+    // appends every Weet left in the cursor to an array that doubles when it is full
+    private static Weet[] toArray(WeetCursor cursor) {
+	return toArray(cursor, Integer.MAX_VALUE);
+    }
+    
+    // appends at most limit Weets, a small limit is the size of a page so there is room for all of it from the start
+    private static Weet[] toArray(WeetCursor cursor, int limit) {
+	Weet[] array = new Weet[Math.max(Math.min(limit, 1024), 16)];
+	int count = 0;
+	while (count < limit) {
+	    Weet weet = cursor.next();
+	    if (weet == null)
+		break;
+	    if (count == array.length)
+		array = resize(array, 2 * count);
+	    array[count++] = weet;
 	}
-	inOrderDateOn(x.right, queue, date);
+	return resize(array, count);
     }
     
-    //inorder traversal for getWeetsBefore
-    public Queue<Weet> inOrderDateBefore(Date date) {
-	Queue<Weet> queue = new Queue<Weet>();
-	inOrderDateBefore(root, queue, date);
-	return queue;
+    // copies the first Weets of array into a new array of the given length
+    private static Weet[] resize(Weet[] array, int length) {
+	if (array.length == length)
+	    return array;
+	Weet[] newArray = new Weet[length];
+	System.arraycopy(array, 0, newArray, 0, Math.min(array.length, length));
+	return newArray;
     }
     
-    private void inOrderDateBefore(Node x, Queue<Weet> queue, Date date) {
-	if (x == null) return;
+    /**
+      Traversal is an iterative in-order traversal, newest Weet first.
+      The stack holds the nodes whose left subtree has been visited but not the node itself, which is at most one path from the root.
+      A left leaning red black tree has a height of at most 2logn, so the stack never has to grow.
+    */
+    
+    private class Traversal {
+	private Node[] stack = new Node[2 * (32 - Integer.numberOfLeadingZeros(n + 1)) + 1];
+	private int top = 0;
+	
+	// push x and every left child below it, the last one pushed is visited first
+	public void pushLeft(Node x) {
+	    while (x != null) {
+		stack[top++] = x;
+		x = x.left;
+	    }
+	}
+	
+	// push the path to the most recent Weet before date, or not after date if inclusive
+	// nodes that are too recent are skipped together with their left subtree
+	public void seek(Date date, boolean inclusive) {
+	    Node x = root;
+	    while (x != null) {
+		int cmp = x.weet.getDateWeeted().compareTo(date);
+		if (cmp < 0 || (inclusive && cmp == 0)) {
+		    stack[top++] = x;
+		    x = x.left;
+		} else {
+		    x = x.right;
+		}
+	    }
+	}
 	
-	inOrderDateBefore(x.left, queue, date);
-	int cmp = x.weet.getDateWeeted().compareTo(date);
-	if(cmp < 0) {
-	    queue.enqueue(x.weet);
-	    //System.out.println(x.weet.getDateWeeted());
+	// returns the next node, or null when the traversal is finished
+	public Node next() {
+	    if (top == 0)
+		return null;
+	    Node x = stack[--top];
+	    pushLeft(x.right);
+	    return x;
 	}
-	inOrderDateBefore(x.right, queue, date);
     }
     
+    /**
+      TraversalCursor reads a Traversal one Weet ahead, so hasNext() knows whether there is another match.
+      If on is set it stops at the first Weet with a different date, if query is set it skips the Weets that do not contain it.
+    */
+    
+    private class TraversalCursor implements WeetCursor {
+	private Traversal traversal;
+	private Date on;
+	private String query;
+	private Weet nextWeet;
+	
+	public TraversalCursor(Traversal traversal, Date on, String query) {
+	    this.traversal = traversal;
+	    this.on = on;
+	    this.query = query;
+	    nextWeet = find();
+	}
+	
+	private Weet find() {
+	    for (Node x = traversal.next(); x != null; x = traversal.next()) {
+		if (on != null && x.weet.getDateWeeted().compareTo(on) != 0)
+		    return null;
+		if (query == null || x.weet.getMessage().contains(query))
+		    return x.weet;
+	    }
+	    return null;
+	}
+	
+	public boolean hasNext() {
+	    return nextWeet != null;
+	}
+	
+	public Weet next() {
+	    Weet weet = nextWeet;
+	    if (weet != null)
+		nextWeet = find();
+	    return weet;
+	}
+	
+	public int skip(int k) {
+	    int skipped = 0;
+	    while (skipped < k && nextWeet != null) {
+		nextWeet = find();
+		skipped++;
+	    }
+	    return skipped;
+	}
+    }
 }
 
 /**
@@ -589,18 +1099,47 @@ class WeetRedBlackLiteBST<Key extends Comparable<Key>, Value> {
         return key;
     }
 
-    public Queue<Value> inorderTraversal() {
-        Queue<Value> queue = new Queue<Value>();
-        inorderTraversal(root, queue);
-        return queue;
+    // return all keys in order, array must have a length of at least size()
+    // a generic array cannot be created here, so the caller passes one in
+    @SuppressWarnings("unchecked")
+    public Key[] keys(Key[] array) {
+        Object[] stack = new Object[stackSize()]; // a generic Node[] cannot be created
+        int top = 0, count = 0;
+        Node x = root;
+        while (x != null || top > 0) {
+            while (x != null) {
+                stack[top++] = x;
+                x = x.left;
+            }
+            x = (Node) stack[--top];
+            array[count++] = x.key;
+            x = x.right;
+        }
+        return array;
     }
 
-    private void inorderTraversal(Node x, Queue<Value> queue) { 
-        if (x == null) return;
-        inorderTraversal(x.left, queue); 
-        queue.enqueue(x.val);
-        inorderTraversal(x.right, queue); 
-    } 
+    // return all values in order of their keys, array must have a length of at least size()
+    @SuppressWarnings("unchecked")
+    public Value[] inorderTraversal(Value[] array) {
+        Object[] stack = new Object[stackSize()]; // a generic Node[] cannot be created
+        int top = 0, count = 0;
+        Node x = root;
+        while (x != null || top > 0) {
+            while (x != null) {
+                stack[top++] = x;
+                x = x.left;
+            }
+            x = (Node) stack[--top];
+            array[count++] = x.val;
+            x = x.right;
+        }
+        return array;
+    }
+
+    // the height is at most 2logn, so the stack of an iterative traversal never has to grow
+    private int stackSize() {
+        return 2 * (32 - Integer.numberOfLeadingZeros(n + 1)) + 1;
+    }
 
 }
 
@@ -660,6 +1199,416 @@ class Queue<Item>{
     }
 }
 
+/**
+  WeetDateList stores a list of Weets in the same order as an in-order traversal of dateBST: most recent first.
+  It is used for the Weets of one user in userMap and for the posting lists of WeetTokenIndex.
+  Internally the array is kept oldest first, so that a Weet arriving in date order is appended at the end in O(1).
+  A Weet arriving out of order uses a binary search to find its position, followed by a shift of the newer Weets.
+  Every Weet also stores the order it was added to WeetStore (seq), Weets with the same date are ordered by seq.
+  This matches dateBST, where the newest added Weet comes first, and lets two lists be merged in O(n+m).
+*/
+
+class WeetDateList {
+    private Weet[] weets;
+    private long[] dates; // dates of the weets as milliseconds, avoids calling getDateWeeted() while searching
+    private int[] seqs; // order the weets were added to the store
+    private int n; // number of weets in the list
+    
+    public WeetDateList() {
+	this(4);
+    }
+    
+    public WeetDateList(int capacity) {
+	weets = new Weet[Math.max(capacity, 1)];
+	dates = new long[weets.length];
+	seqs = new int[weets.length];
+    }
+    
+    public void add(Weet weet, int seq) {
+	long date = weet.getDateWeeted().getTime();
+	
+	// double the arrays when they are full
+	if (n == weets.length)
+	    resize(2 * n);
+	
+	// find the first weet that comes after the new weet
+	// most weets are more recent than all others, so check the end first
+	int position = n;
+	if (n > 0 && compare(n - 1, date, seq) > 0)
+	    position = upperBound(date, seq);
+	
+	// shift the more recent weets up by one
+	System.arraycopy(weets, position, weets, position + 1, n - position);
+	System.arraycopy(dates, position, dates, position + 1, n - position);
+	System.arraycopy(seqs, position, seqs, position + 1, n - position);
+	weets[position] = weet;
+	dates[position] = date;
+	seqs[position] = seq;
+	n++;
+    }
+    
+    // add at the end, only used when the weet is known to come after every other weet
+    private void append(Weet weet, long date, int seq) {
+	if (n == weets.length)
+	    resize(2 * n);
+	weets[n] = weet;
+	dates[n] = date;
+	seqs[n] = seq;
+	n++;
+    }
+    
+    // compares the weet at position i with a date and seq, oldest first
+    private int compare(int i, long date, int seq) {
+	if (dates[i] != date)
+	    return dates[i] < date ? -1 : 1;
+	if (seqs[i] != seq)
+	    return seqs[i] < seq ? -1 : 1;
+	return 0;
+    }
+    
+    // binary search for the first position that comes after date and seq
+    private int upperBound(long date, int seq) {
+	int low = 0, high = n;
+	while (low < high) {
+	    int middle = low + (high - low)/2;
+	    if (compare(middle, date, seq) <= 0)
+		low = middle + 1;
+	    else
+		high = middle;
+	}
+	return low;
+    }
+    
+    private void resize(int capacity) {
+	Weet[] newWeets = new Weet[capacity];
+	long[] newDates = new long[capacity];
+	int[] newSeqs = new int[capacity];
+	System.arraycopy(weets, 0, newWeets, 0, n);
+	System.arraycopy(dates, 0, newDates, 0, n);
+	System.arraycopy(seqs, 0, newSeqs, 0, n);
+	weets = newWeets;
+	dates = newDates;
+	seqs = newSeqs;
+    }
+    
+    public int size() {
+	return n;
+    }
+    
+    // copy the weets into an array, most recent first
+    public Weet[] toArray() {
+	Weet[] array = new Weet[n];
+	for (int i = 0; i < n; i++) {
+	    array[i] = weets[n - 1 - i];
+	}
+	return array;
+    }
+    
+    // puts every weet at position seq - 1 of array, so the lists of all users together give the order the weets were added
+    public void copyBySeq(Weet[] array) {
+	for (int i = 0; i < n; i++) {
+	    array[seqs[i] - 1] = weets[i];
+	}
+    }
+    
+    // copy the weets whose message contains the query into an array, most recent first
+    public Weet[] toArrayContaining(String query) {
+	Weet[] matches = new Weet[n];
+	int count = 0;
+	for (int i = n - 1; i >= 0; i--) {
+	    if (weets[i].getMessage().contains(query))
+		matches[count++] = weets[i];
+	}
+	
+	Weet[] array = new Weet[count];
+	System.arraycopy(matches, 0, array, 0, count);
+	return array;
+    }
+    
+    // copy at most limit weets from before the date into an array, most recent first, O(logn + limit)
+    public Weet[] toArrayBefore(Date before, int limit) {
+	// every weet below position is before the date
+	return copyBefore(lowerBound(before.getTime()), limit);
+    }
+    
+    // the same, but starting right after the weet afterId if it has the date, O(logn + t + limit) where t is the number of weets with the date
+    public Weet[] toArrayBefore(Date before, int afterId, int limit) {
+	long date = before.getTime();
+	int position = lowerBound(date);
+	for (int i = position; i < n && dates[i] == date; i++) {
+	    if (weets[i].getId() == afterId) {
+		position = i;
+		break;
+	    }
+	}
+	return copyBefore(position, limit);
+    }
+    
+    // copy at most limit weets below position, most recent first
+    private Weet[] copyBefore(int position, int limit) {
+	int count = Math.max(Math.min(limit, position), 0);
+	Weet[] array = new Weet[count];
+	for (int i = 0; i < count; i++) {
+	    array[i] = weets[position - 1 - i];
+	}
+	return array;
+    }
+    
+    // binary search for the first position whose date is not before date
+    private int lowerBound(long date) {
+	int low = 0, high = n;
+	while (low < high) {
+	    int middle = low + (high - low)/2;
+	    if (dates[middle] < date)
+		low = middle + 1;
+	    else
+		high = middle;
+	}
+	return low;
+    }
+    
+    // a cursor over the weets whose message contains the query, most recent first, or every weet if query is null
+    public WeetCursor cursor(String query) {
+	return new ListCursor(query);
+    }
+    
+    /**
+      ListCursor walks the array from the end, because the array is kept oldest first.
+      Without a query skip() only moves the position, O(1).
+    */
+    
+    private class ListCursor implements WeetCursor {
+	private String query;
+	private int position; // position of the next weet to return, -1 at the end
+	
+	public ListCursor(String query) {
+	    this.query = query;
+	    position = n - 1;
+	    find();
+	}
+	
+	// move position down to the next weet that contains the query
+	private void find() {
+	    if (query == null)
+		return;
+	    while (position >= 0 && !weets[position].getMessage().contains(query)) {
+		position--;
+	    }
+	}
+	
+	public boolean hasNext() {
+	    return position >= 0;
+	}
+	
+	public Weet next() {
+	    if (position < 0)
+		return null;
+	    Weet weet = weets[position--];
+	    find();
+	    return weet;
+	}
+	
+	public int skip(int k) {
+	    if (query == null) {
+		int skipped = Math.max(Math.min(k, position + 1), 0);
+		position -= skipped;
+		return skipped;
+	    }
+	    int skipped = 0;
+	    while (skipped < k && position >= 0) {
+		position--;
+		find();
+		skipped++;
+	    }
+	    return skipped;
+	}
+    }
+    
+    /**
+      intersect() and union() merge two lists like the merge step of Mergesort, O(n+m).
+      Both lists are sorted by date and seq, and a Weet has the same date and seq in every list.
+    */
+    
+    public static WeetDateList intersect(WeetDateList a, WeetDateList b) {
+	WeetDateList result = new WeetDateList(Math.min(a.n, b.n));
+	int i = 0, j = 0;
+	while (i < a.n && j < b.n) {
+	    int cmp = a.compare(i, b.dates[j], b.seqs[j]);
+	    if (cmp < 0) {
+		i++;
+	    } else if (cmp > 0) {
+		j++;
+	    } else {
+		result.append(a.weets[i], a.dates[i], a.seqs[i]);
+		i++;
+		j++;
+	    }
+	}
+	return result;
+    }
+    
+    public static WeetDateList union(WeetDateList a, WeetDateList b) {
+	WeetDateList result = new WeetDateList(a.n + b.n);
+	int i = 0, j = 0;
+	while (i < a.n || j < b.n) {
+	    int cmp;
+	    if (i == a.n)
+		cmp = 1;
+	    else if (j == b.n)
+		cmp = -1;
+	    else
+		cmp = a.compare(i, b.dates[j], b.seqs[j]);
+	    
+	    if (cmp <= 0) {
+		result.append(a.weets[i], a.dates[i], a.seqs[i]);
+		if (cmp == 0) // same weet in both lists, only add it once
+		    j++;
+		i++;
+	    } else {
+		result.append(b.weets[j], b.dates[j], b.seqs[j]);
+		j++;
+	    }
+	}
+	return result;
+    }
+}
+
+/**
+  WeetTokenIndex is an inverted index used by getWeetsContaining().
+  A token is a run of letters, digits and underscores, the same characters as \w in a regex.
+  tokenBST stores a WeetDateList for every token, which is the posting list of every Weet that contains the token.
+  
+  A query is split into tokens the same way. A query token with a non-word character on both sides must be a whole token of the message.
+  The posting lists of these tokens are intersected, starting with the shortest list.
+  If the query has no whole tokens, the longest token is matched against every token in tokenBST instead, and those posting lists are joined.
+  Either way the result is only a list of candidates, WeetStore still checks each candidate with contains().
+*/
+
+class WeetTokenIndex {
+    WeetRedBlackLiteBST<String, WeetDateList> tokenBST = new WeetRedBlackLiteBST<String, WeetDateList>();
+    
+    public void add(Weet weet, int seq) {
+	String message = weet.getMessage();
+	int length = message.length();
+	
+	// tokens already added for this weet, so a repeated word is only added once
+	String[] added = new String[8];
+	int count = 0;
+	
+	int i = 0;
+	while (i < length) {
+	    // skip to the start of the next token
+	    while (i < length && !HashtagScanner.isWordChar(message.charAt(i)))
+		i++;
+	    int start = i;
+	    while (i < length && HashtagScanner.isWordChar(message.charAt(i)))
+		i++;
+	    if (start == i)
+		break;
+	    
+	    String token = message.substring(start, i);
+	    if (contains(added, count, token))
+		continue;
+	    if (count == added.length) {
+		String[] bigger = new String[2 * count];
+		System.arraycopy(added, 0, bigger, 0, count);
+		added = bigger;
+	    }
+	    added[count++] = token;
+	    
+	    WeetDateList postings = tokenBST.get(token);
+	    if (postings == null) {
+		postings = new WeetDateList();
+		tokenBST.put(token, postings);
+	    }
+	    postings.add(weet, seq);
+	}
+    }
+    
+    /**
+      candidates()
+      1) Split the query into tokens, return null if there are none, WeetStore then has to do a full traversal.
+      2) Intersect the posting lists of the whole tokens.
+      3) If there are no whole tokens, join the posting lists of every token that can contain the longest query token.
+    */
+    
+    public WeetDateList candidates(String query) {
+	int length = query.length();
+	WeetDateList result = null;
+	
+	// longest token that is not a whole token, with whether it has to start or end the message token
+	String partial = null;
+	boolean partialStart = false, partialEnd = false;
+	
+	int i = 0;
+	while (i < length) {
+	    while (i < length && !HashtagScanner.isWordChar(query.charAt(i)))
+		i++;
+	    int start = i;
+	    while (i < length && HashtagScanner.isWordChar(query.charAt(i)))
+		i++;
+	    if (start == i)
+		break;
+	    
+	    String token = query.substring(start, i);
+	    boolean isStart = start > 0; // a non-word character before the token
+	    boolean isEnd = i < length; // a non-word character after the token
+	    
+	    if (isStart && isEnd) {
+		WeetDateList postings = tokenBST.get(token);
+		// if a whole token does not exist, nothing can match
+		if (postings == null)
+		    return new WeetDateList();
+		if (result == null)
+		    result = postings;
+		else if (postings.size() < result.size())
+		    result = WeetDateList.intersect(postings, result);
+		else
+		    result = WeetDateList.intersect(result, postings);
+	    } else if (partial == null || token.length() > partial.length()) {
+		partial = token;
+		partialStart = isStart;
+		partialEnd = isEnd;
+	    }
+	}
+	
+	if (result != null || partial == null)
+	    return result;
+	
+	// no whole tokens, so find every token in the index that the partial token can be part of
+	Queue<WeetDateList> lists = new Queue<WeetDateList>();
+	String[] tokens = tokenBST.keys(new String[tokenBST.size()]);
+	for (String token : tokens) {
+	    boolean match;
+	    if (partialStart)
+		match = token.startsWith(partial);
+	    else if (partialEnd)
+		match = token.endsWith(partial);
+	    else
+		match = token.contains(partial);
+	    if (match)
+		lists.enqueue(tokenBST.get(token));
+	}
+	
+	if (lists.isEmpty())
+	    return new WeetDateList();
+	
+	// join two lists at a time until one is left, so each weet is copied O(logk) times
+	while (lists.size() > 1) {
+	    lists.enqueue(WeetDateList.union(lists.dequeue(), lists.dequeue()));
+	}
+	return lists.dequeue();
+    }
+    
+    private static boolean contains(String[] array, int count, String token) {
+	for (int i = 0; i < count; i++) {
+	    if (array[i].equals(token))
+		return true;
+	}
+	return false;
+    }
+}
+
 /**
   Class for getTrending().
 */
@@ -669,6 +1618,13 @@ class TrendingTopics {
     private String topic;
     private int timesMentioned;
     
+    // how much timesMentioned can be too high, only used by TrendingSketch
+    private int error;
+    
+    // position in TrendingRanking
+    TrendingBucket bucket;
+    TrendingTopics previous, next;
+    
     public TrendingTopics(String topic) {
 	this.topic = topic;
 	timesMentioned = 1;
@@ -688,4 +1644,505 @@ class TrendingTopics {
     public void increaseTimesMentioned() {
 	timesMentioned++;
     }
+    
+    public void increaseTimesMentioned(int amount) {
+	timesMentioned += amount;
+    }
+    
+    // get method
+    public int getError() {
+	return error;
+    }
+    
+    // used by TrendingSketch to reuse this topic for a new topic, the old times mentioned becomes the error
+    public void replaceTopic(String topic) {
+	this.topic = topic;
+	this.error = timesMentioned;
+    }
+}
+
+/**
+  TrendingRanking keeps the TrendingTopics sorted by times mentioned, for getTrending().
+  Every TrendingBucket holds a linked list of the topics with the same times mentioned.
+  The buckets form a linked list from the highest times mentioned to the lowest, and only non-empty buckets are kept.
+  Mentioning a topic again moves it to the bucket above, which is the next bucket or a new one, so it is O(1).
+  Within a bucket topics are kept in the order they reached it, so a topic that reached a count first ranks first.
+*/
+
+class TrendingRanking {
+    private TrendingBucket highest; // bucket with the most times mentioned
+    private TrendingBucket lowest; // bucket with the least times mentioned
+    private int size; // number of topics
+    
+    // adds a topic that has just been created
+    public void add(TrendingTopics topic) {
+	int timesMentioned = topic.getTimesMentioned();
+	TrendingBucket bucket = lowest;
+	if (bucket == null || bucket.timesMentioned != timesMentioned)
+	    bucket = insertBucket(timesMentioned, null, lowest);
+	bucket.append(topic);
+	size++;
+    }
+    
+    // increases the times mentioned of a topic by one and moves it up
+    public void increment(TrendingTopics topic) {
+	TrendingBucket from = topic.bucket;
+	int timesMentioned = from.timesMentioned + 1;
+	
+	// the bucket above has to be exactly one higher, otherwise create it
+	TrendingBucket to = from.higher;
+	if (to == null || to.timesMentioned != timesMentioned)
+	    to = insertBucket(timesMentioned, from, from.higher);
+	
+	from.remove(topic);
+	if (from.first == null)
+	    removeBucket(from);
+	
+	topic.increaseTimesMentioned();
+	to.append(topic);
+    }
+    
+    // increases the times mentioned of a topic by amount, walking up past the buckets in between, O(amount) at most
+    public void increase(TrendingTopics topic, int amount) {
+	TrendingBucket from = topic.bucket;
+	int timesMentioned = from.timesMentioned + amount;
+	
+	// the highest bucket that is not above the new times mentioned, use it if it is exactly equal, otherwise create one above it
+	TrendingBucket below = from;
+	while (below.higher != null && below.higher.timesMentioned <= timesMentioned)
+	    below = below.higher;
+	TrendingBucket to = below;
+	if (to.timesMentioned != timesMentioned)
+	    to = insertBucket(timesMentioned, below, below.higher);
+	
+	from.remove(topic);
+	if (from.first == null)
+	    removeBucket(from);
+	
+	topic.increaseTimesMentioned(amount);
+	to.append(topic);
+    }
+    
+    // returns the k topics with the most times mentioned, O(k)
+    public TrendingTopics[] top(int k) {
+	TrendingTopics[] array = new TrendingTopics[Math.max(0, Math.min(k, size))];
+	int count = 0;
+	for (TrendingBucket bucket = highest; bucket != null && count < array.length; bucket = bucket.lower) {
+	    for (TrendingTopics topic = bucket.first; topic != null && count < array.length; topic = topic.next) {
+		array[count++] = topic;
+	    }
+	}
+	return array;
+    }
+    
+    public int size() {
+	return size;
+    }
+    
+    // the topic with the least times mentioned, the one that reached it first
+    public TrendingTopics lowest() {
+	if (lowest == null)
+	    return null;
+	return lowest.first;
+    }
+    
+    // creates an empty bucket between lower and higher
+    private TrendingBucket insertBucket(int timesMentioned, TrendingBucket lower, TrendingBucket higher) {
+	TrendingBucket bucket = new TrendingBucket(timesMentioned);
+	bucket.lower = lower;
+	bucket.higher = higher;
+	if (lower == null) lowest = bucket;
+	else               lower.higher = bucket;
+	if (higher == null) highest = bucket;
+	else                higher.lower = bucket;
+	return bucket;
+    }
+    
+    private void removeBucket(TrendingBucket bucket) {
+	if (bucket.lower == null) lowest = bucket.higher;
+	else                      bucket.lower.higher = bucket.higher;
+	if (bucket.higher == null) highest = bucket.lower;
+	else                       bucket.higher.lower = bucket.lower;
+    }
+}
+
+class TrendingBucket {
+    int timesMentioned;
+    TrendingTopics first, last; // linked list of topics
+    TrendingBucket higher, lower; // neighbouring buckets
+    
+    public TrendingBucket(int timesMentioned) {
+	this.timesMentioned = timesMentioned;
+    }
+    
+    // add a topic at the end of the bucket
+    public void append(TrendingTopics topic) {
+	topic.bucket = this;
+	topic.previous = last;
+	topic.next = null;
+	if (last == null) first = topic;
+	else              last.next = topic;
+	last = topic;
+    }
+    
+    // unlink a topic from the bucket
+    public void remove(TrendingTopics topic) {
+	if (topic.previous == null) first = topic.next;
+	else                        topic.previous.next = topic.next;
+	if (topic.next == null) last = topic.previous;
+	else                    topic.next.previous = topic.previous;
+	topic.previous = null;
+	topic.next = null;
+	topic.bucket = null;
+    }
+}
+
+/**
+  TrendingWindow counts the mentions of every topic per bucket of time (an hour by default), for getTrending() between two dates.
+  Every topic stores a ring buffer of counts, the count of bucket b is stored at b % buckets, so old buckets are reused.
+  The window ends at the bucket of the most recent Weet seen, mentions older than the window are not counted.
+  A topic also stores the newest bucket it was mentioned in, the buckets between that and a new mention are reset when it is mentioned.
+  Once the window has moved a whole window length, topics not mentioned within the window are removed by rebuilding topicBST.
+  This keeps the memory bounded by the topics mentioned in the last two windows, no matter how long the store runs.
+*/
+
+class TrendingWindow {
+    private final long bucketMillis; // length of a bucket
+    private final int buckets; // number of buckets in the window
+    
+    private WeetRedBlackLiteBST<String, TrendingWindowTopic> topicBST = new WeetRedBlackLiteBST<String, TrendingWindowTopic>();
+    private long newestBucket = Long.MIN_VALUE; // bucket of the most recent mention
+    private long lastCleanup = Long.MIN_VALUE; // newestBucket when expired topics were last removed
+    
+    public TrendingWindow(long bucketMillis, int buckets) {
+	if (bucketMillis <= 0 || buckets <= 0)
+	    throw new IllegalArgumentException("bucketMillis and buckets must be positive");
+	this.bucketMillis = bucketMillis;
+	this.buckets = buckets;
+    }
+    
+    public void add(String topic, Date date) {
+	long bucket = Math.floorDiv(date.getTime(), bucketMillis);
+	
+	// move the window forward, and remove expired topics once every window length
+	if (bucket > newestBucket) {
+	    newestBucket = bucket;
+	    if (lastCleanup == Long.MIN_VALUE)
+		lastCleanup = bucket;
+	    else if (bucket - lastCleanup >= buckets)
+		removeExpired();
+	}
+	
+	// too old for the window
+	if (bucket <= newestBucket - buckets)
+	    return;
+	
+	TrendingWindowTopic windowTopic = topicBST.get(topic);
+	if (windowTopic == null) {
+	    windowTopic = new TrendingWindowTopic(topic, buckets);
+	    topicBST.put(topic, windowTopic);
+	}
+	windowTopic.increment(bucket);
+    }
+    
+    /**
+      top()
+      1) Round from and to down to their buckets, and only keep the part inside the window.
+      2) Add up the counts of every topic between the two buckets.
+      3) Keep the k highest counts in a sorted array, using binary search and a shift, ties stay in alphabetical order.
+    */
+    
+    public String[] top(Date from, Date to, int k) {
+	if (newestBucket == Long.MIN_VALUE)
+	    return new String[0];
+	
+	long first = Math.max(Math.floorDiv(from.getTime(), bucketMillis), newestBucket - buckets + 1);
+	long last = Math.min(Math.floorDiv(to.getTime(), bucketMillis), newestBucket);
+	
+	TrendingWindowTopic[] best = new TrendingWindowTopic[Math.max(k, 0)];
+	int[] bestCounts = new int[best.length];
+	int count = 0;
+	
+	TrendingWindowTopic[] topics = topicBST.inorderTraversal(new TrendingWindowTopic[topicBST.size()]);
+	for (int i = 0; i < topics.length && first <= last && best.length > 0; i++) {
+	    TrendingWindowTopic topic = topics[i];
+	    int mentions = topic.count(first, last);
+	    if (mentions == 0)
+		continue;
+	    if (count == best.length && mentions <= bestCounts[count - 1])
+		continue;
+	    
+	    // find the position after every count that is at least as high
+	    int low = 0, high = count;
+	    while (low < high) {
+		int middle = low + (high - low)/2;
+		if (bestCounts[middle] >= mentions)
+		    low = middle + 1;
+		else
+		    high = middle;
+	    }
+	    
+	    // shift the lower counts down by one, dropping the last one if full
+	    int move = Math.min(count, best.length - 1) - low;
+	    System.arraycopy(best, low, best, low + 1, move);
+	    System.arraycopy(bestCounts, low, bestCounts, low + 1, move);
+	    best[low] = topic;
+	    bestCounts[low] = mentions;
+	    if (count < best.length)
+		count++;
+	}
+	
+	String[] array = new String[count];
+	for (int i = 0; i < count; i++) {
+	    array[i] = best[i].getTopic();
+	}
+	return array;
+    }
+    
+    // rebuild topicBST with only the topics mentioned within the window
+    private void removeExpired() {
+	WeetRedBlackLiteBST<String, TrendingWindowTopic> live = new WeetRedBlackLiteBST<String, TrendingWindowTopic>();
+	TrendingWindowTopic[] topics = topicBST.inorderTraversal(new TrendingWindowTopic[topicBST.size()]);
+	for (TrendingWindowTopic topic : topics) {
+	    if (topic.getNewestBucket() > newestBucket - buckets)
+		live.put(topic.getTopic(), topic);
+	}
+	topicBST = live;
+	lastCleanup = newestBucket;
+    }
+    
+    // number of topics currently kept
+    public int size() {
+	return topicBST.size();
+    }
+}
+
+class TrendingWindowTopic {
+    private String topic;
+    private int[] counts; // ring buffer, the count of bucket b is at b % counts.length
+    private long newestBucket; // newest bucket with a count
+    
+    public TrendingWindowTopic(String topic, int buckets) {
+	this.topic = topic;
+	this.counts = new int[buckets];
+	this.newestBucket = Long.MIN_VALUE;
+    }
+    
+    public void increment(long bucket) {
+	int buckets = counts.length;
+	if (bucket > newestBucket) {
+	    // reset the buckets that are reused for newer buckets, at most the whole ring
+	    if (newestBucket == Long.MIN_VALUE || bucket - newestBucket >= buckets) {
+		for (int i = 0; i < buckets; i++) {
+		    counts[i] = 0;
+		}
+	    } else {
+		for (long b = newestBucket + 1; b <= bucket; b++) {
+		    counts[(int) Math.floorMod(b, (long) buckets)] = 0;
+		}
+	    }
+	    newestBucket = bucket;
+	} else if (bucket <= newestBucket - buckets) {
+	    return; // already reused by a newer bucket
+	}
+	counts[(int) Math.floorMod(bucket, (long) buckets)]++;
+    }
+    
+    // adds up the buckets between first and last that are still in the ring
+    public int count(long first, long last) {
+	first = Math.max(first, newestBucket - counts.length + 1);
+	last = Math.min(last, newestBucket);
+	int sum = 0;
+	for (long b = first; b <= last; b++) {
+	    sum += counts[(int) Math.floorMod(b, (long) counts.length)];
+	}
+	return sum;
+    }
+    
+    public String getTopic() {
+	return topic;
+    }
+    
+    public long getNewestBucket() {
+	return newestBucket;
+    }
+}
+
+/**
+  TrendingSketch is used for getTrending() in the approximate trending mode, using a fixed amount of memory.
+  
+  It combines two summaries of the stream of #trends:
+  1) A Space-Saving summary monitors at most capacity topics in a TrendingRanking.
+     When a new topic arrives and the summary is full, the topic with the least mentions is replaced by the new topic.
+     The new topic takes over the times mentioned (plus one), and the old count is remembered as its error.
+     So a monitored count is never too low, and is at most error too high.
+  2) A Count-Min Sketch of depth rows and width counters, every topic is counted in one counter of every row.
+     The estimate is the smallest of its counters, which is never too low and is at most e*N/width too high with probability 1 - e^-depth.
+  A topic's estimate is the smaller of both counts, and the error is the difference to the Space-Saving lower bound.
+  
+  monitored is an open addressing hash table from a topic to its TrendingTopics, with linear probing.
+  It has a fixed size of at least twice the capacity, so it never has to be resized.
+*/
+
+class TrendingSketch {
+    static final int DEFAULT_WIDTH = 1 << 14;
+    static final int DEFAULT_DEPTH = 4;
+    static final int DEFAULT_CAPACITY = 1000;
+    
+    // Count-Min Sketch
+    private final int[] counters; // depth rows of width counters
+    private final int width; // power of two, so a hash is reduced with a mask
+    private final int depth;
+    private long total; // number of mentions
+    
+    // Space-Saving
+    private final TrendingRanking ranking = new TrendingRanking();
+    private final int capacity;
+    private final String[] keys; // hash table of monitored topics
+    private final TrendingTopics[] values;
+    
+    public TrendingSketch(int width, int depth, int capacity) {
+	if (width <= 0 || depth <= 0 || capacity <= 0)
+	    throw new IllegalArgumentException("width, depth and capacity must be positive");
+	// round the width up to a power of two
+	int powerOfTwo = Integer.highestOneBit(width);
+	this.width = powerOfTwo < width ? powerOfTwo << 1 : powerOfTwo;
+	this.depth = depth;
+	this.counters = new int[this.width * depth];
+	this.capacity = capacity;
+	
+	int tableSize = Integer.highestOneBit(capacity) << 2;
+	this.keys = new String[tableSize];
+	this.values = new TrendingTopics[tableSize];
+    }
+    
+    /**
+      add()
+      1) Increment the topic's counter in every row of the sketch.
+      2) If the topic is monitored, move it up in the ranking.
+      3) If not, and there is space, start monitoring it.
+      4) Otherwise replace the topic with the least mentions.
+    */
+    
+    public void add(String topic) {
+	add(topic, 1);
+    }
+    
+    // count mentions of a topic at once, the same as calling add(topic) count times except for ties in the ranking
+    public void add(String topic, int count) {
+	int hash = topic.hashCode();
+	for (int row = 0; row < depth; row++) {
+	    counters[row * width + index(hash, row)] += count;
+	}
+	total += count;
+	
+	TrendingTopics monitoredTopic = get(topic);
+	if (monitoredTopic != null) {
+	    ranking.increase(monitoredTopic, count);
+	} else if (ranking.size() < capacity) {
+	    TrendingTopics new_topic = new TrendingTopics(topic);
+	    put(new_topic);
+	    ranking.add(new_topic);
+	    if (count > 1)
+		ranking.increase(new_topic, count - 1);
+	} else {
+	    TrendingTopics least = ranking.lowest();
+	    remove(least.getTopic());
+	    least.replaceTopic(topic);
+	    put(least);
+	    ranking.increase(least, count);
+	}
+    }
+    
+    // the k topics with the most mentions in the Space-Saving summary
+    public TrendingTopics[] top(int k) {
+	return ranking.top(k);
+    }
+    
+    public TrendingEstimate[] estimates(int k) {
+	TrendingTopics[] topics = ranking.top(k);
+	TrendingEstimate[] array = new TrendingEstimate[topics.length];
+	for (int i = 0; i < topics.length; i++) {
+	    int upper = Math.min(topics[i].getTimesMentioned(), estimate(topics[i].getTopic()));
+	    int lower = topics[i].getTimesMentioned() - topics[i].getError();
+	    array[i] = new TrendingEstimate(topics[i].getTopic(), upper, upper - lower);
+	}
+	return array;
+    }
+    
+    // the Count-Min Sketch estimate, the smallest counter of the topic
+    public int estimate(String topic) {
+	int hash = topic.hashCode();
+	int min = Integer.MAX_VALUE;
+	for (int row = 0; row < depth; row++) {
+	    min = Math.min(min, counters[row * width + index(hash, row)]);
+	}
+	return min;
+    }
+    
+    // the error bound of the Count-Min Sketch, e*N/width
+    public long sketchError() {
+	return (long) Math.ceil(Math.E * total / width);
+    }
+    
+    // a different hash for every row, by mixing the hash with a different seed
+    private int index(int hash, int row) {
+	return mix(hash ^ (0x9E3779B9 * (row + 1))) & (width - 1);
+    }
+    
+    // finaliser of MurmurHash3, spreads the bits of a hash code
+    private static int mix(int h) {
+	h ^= h >>> 16;
+	h *= 0x85EBCA6B;
+	h ^= h >>> 13;
+	h *= 0xC2B2AE35;
+	h ^= h >>> 16;
+	return h;
+    }
+    
+    /**
+      Open addressing hash table with linear probing for the monitored topics.
+    */
+    
+    private int slot(String topic) {
+	return mix(topic.hashCode()) & (keys.length - 1);
+    }
+    
+    private TrendingTopics get(String topic) {
+	for (int i = slot(topic); keys[i] != null; i = (i + 1) & (keys.length - 1)) {
+	    if (keys[i].equals(topic))
+		return values[i];
+	}
+	return null;
+    }
+    
+    private void put(TrendingTopics topic) {
+	int i = slot(topic.getTopic());
+	while (keys[i] != null)
+	    i = (i + 1) & (keys.length - 1);
+	keys[i] = topic.getTopic();
+	values[i] = topic;
+    }
+    
+    // removes a topic, and moves back any following topics that would no longer be found
+    private void remove(String topic) {
+	int i = slot(topic);
+	while (!keys[i].equals(topic))
+	    i = (i + 1) & (keys.length - 1);
+	keys[i] = null;
+	values[i] = null;
+	
+	for (int j = (i + 1) & (keys.length - 1); keys[j] != null; j = (j + 1) & (keys.length - 1)) {
+	    int home = slot(keys[j]);
+	    // the topic at j can move to the empty slot i if its home slot is not between i and j
+	    boolean between = (i <= j) ? (i < home && home <= j) : (i < home || home <= j);
+	    if (!between) {
+		keys[i] = keys[j];
+		values[i] = values[j];
+		keys[j] = null;
+		values[j] = null;
+		i = j;
+	    }
+	}
+    }
 }
@@ -0,0 +1,589 @@
+/**
+
+  ** CLASSES **
+  WriteAheadLog appends every Weet, User and follow that a store accepts to a log file before the add returns, so nothing is lost when the process dies between two snapshots.
+  A store writes to the log after setLog(), e.g. WeetStore.setLog(), and replay() adds everything in the log to the stores again when the process starts.
+  The log is split into segment files in one directory, a new segment is started when the current one is larger than segmentBytes.
+
+  ** FILE FORMAT **
+  A segment starts with MAGIC, VERSION and Snapshot.LOG, and then has one record per add.
+  Every record starts with the length and the CRC32 of its payload, the payload is the type of the record and its fields.
+  Numbers are big endian ints and longs, dates are milliseconds since the epoch and Strings are a length followed by UTF-8 bytes.
+  If the process dies while a record is written, the last record is incomplete or its CRC32 does not match.
+  replay() stops at such a record in the last segment, and the constructor cuts it off before it starts a new segment.
+
+  ** GROUP COMMIT **
+  Appending a record only copies it into buffer, the slow part is force(), which waits until the disk has the data.
+  With an fsync interval of 0 every add waits until its record is forced, but one force() covers every record appended before it.
+  So while one thread waits for a force(), the threads that append in the meantime are forced together by the next one, instead of one force() each.
+  With an fsync interval above 0 the adds do not wait for force(), a background thread forces the log every fsyncMillis.
+  Every add still writes buffer to the channel before it returns, so the records are in the page cache of the OS and survive when only the process dies.
+  This is much faster, but the adds of the last fsyncMillis can be lost if the machine goes down before they are forced.
+
+  ** SNAPSHOTS **
+  The log is layered on top of the last snapshot, it only has to keep the adds that are not in the snapshot yet.
+  1) roll() starts a new segment and returns its number.
+  2) save() every store, the snapshot has every add that was logged before the roll.
+  3) deleteSegmentsBefore() deletes the segments that are in the snapshot.
+  On start, load() the snapshots and then replay() the log. An add that is in both is rejected as a duplicate by the store, so replaying twice changes nothing.
+
+  ** TIME AND MEMORY COMPLEXITY **
+  Appending a record is O(r) where r is the size of the record, plus one force() per group of records.
+  replay() reads every segment once and calls addWeet(), addUser() or addFollower() for every record, O(s) plus the cost of the adds.
+  The memory of WriteAheadLog is one buffer of Snapshot.BUFFER_SIZE bytes, the log itself is on the disk.
+
+  ** REFERENCES **
+  Group commit from Gray and Reuter, "Transaction Processing: Concepts and Techniques", chapter 9.
+  FileChannel.force() and CRC32 from the Java API.
+
+ @author: u1500212
+ */
+
+package uk.ac.warwick.java.cs126.services;
+
+import uk.ac.warwick.java.cs126.models.User;
+import uk.ac.warwick.java.cs126.models.Weet;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.zip.CRC32;
+
+public class WriteAheadLog implements Closeable {
+
+    static final int WEET = 1;
+    static final int USER = 2;
+    static final int FOLLOW = 3;
+    static final int HEADER = 8; // bytes before the first record of a segment
+    static final long DEFAULT_SEGMENT_BYTES = 64L << 20;
+
+    private Path directory;
+    private long fsyncMillis;
+    private long segmentBytes;
+    private long segment; // number of the current segment
+    private FileChannel channel;
+    private long segmentSize; // bytes in the current segment, including buffer
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(Snapshot.BUFFER_SIZE);
+    private ByteBuffer record = ByteBuffer.allocate(256);
+    private CRC32 crc = new CRC32();
+
+    // records are counted from the start, appended is the number appended and durable the number forced
+    private long appended;
+    private long durable;
+    private boolean syncing; // a thread is in force()
+    private boolean closed;
+    private IOException failure; // the first error of a write() or force(), every later add throws it
+    private Thread flusher;
+
+    // every add waits for its record to be forced
+    public WriteAheadLog(Path directory) throws IOException {
+	this(directory, 0, DEFAULT_SEGMENT_BYTES);
+    }
+
+    // fsyncMillis is the time between two forces of the background thread, 0 forces every add before it returns
+    public WriteAheadLog(Path directory, long fsyncMillis) throws IOException {
+	this(directory, fsyncMillis, DEFAULT_SEGMENT_BYTES);
+    }
+
+    public WriteAheadLog(Path directory, long fsyncMillis, long segmentBytes) throws IOException {
+	if (fsyncMillis < 0)
+	    throw new IllegalArgumentException("fsyncMillis cannot be negative");
+	if (segmentBytes <= HEADER || segmentBytes > Integer.MAX_VALUE)
+	    throw new IllegalArgumentException("segmentBytes has to be between " + HEADER + " and " + Integer.MAX_VALUE);
+	this.directory = directory;
+	this.fsyncMillis = fsyncMillis;
+	this.segmentBytes = segmentBytes;
+	Files.createDirectories(directory);
+
+	// cut off an incomplete record at the end of the last segment, and continue after it
+	long[] segments = segments(directory);
+	if (segments.length > 0) {
+	    long last = segments[segments.length - 1];
+	    try (FileChannel old = FileChannel.open(segmentPath(directory, last), StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+		ByteBuffer bytes = read(old);
+		int end = validLength(bytes);
+		if (end < bytes.limit()) {
+		    old.truncate(end);
+		    old.force(true);
+		}
+	    }
+	    segment = last + 1;
+	}
+	openSegment();
+
+	if (fsyncMillis > 0) {
+	    flusher = new Thread(new Runnable() {
+		public void run() {
+		    flushEvery();
+		}
+	    }, "WriteAheadLog flusher");
+	    flusher.setDaemon(true);
+	    flusher.start();
+	}
+    }
+
+    /**
+      The append methods are called by the stores after setLog(), for every add that is accepted.
+      They throw an UncheckedIOException if the log can not be written, because addWeet(), addUser() and addFollower() can not throw an IOException.
+      After an error the log does not know which records reached the disk, so every later add throws the same error.
+      The store should then be thrown away and restored from the snapshot and the log.
+    */
+
+    public void appendWeet(Weet weet) {
+	appendWeets(new Weet[] { weet }, 1);
+    }
+
+    // appends the first count Weets and waits for one force(), for WeetStore.addWeets()
+    public void appendWeets(Weet[] weets, int count) {
+	long lsn;
+	synchronized (this) {
+	    checkOpen();
+	    for (int i = 0; i < count; i++) {
+		ensureRecord(17);
+		record.put((byte) WEET);
+		record.putInt(weets[i].getId());
+		record.putInt(weets[i].getUserId());
+		record.putLong(weets[i].getDateWeeted().getTime());
+		putString(weets[i].getMessage());
+		endRecord();
+	    }
+	    lsn = appended;
+	}
+	awaitDurable(lsn);
+    }
+
+    public void appendUser(User usr) {
+	appendUsers(new User[] { usr }, 1);
+    }
+
+    public void appendUsers(User[] users, int count) {
+	long lsn;
+	synchronized (this) {
+	    checkOpen();
+	    for (int i = 0; i < count; i++) {
+		ensureRecord(13);
+		record.put((byte) USER);
+		record.putInt(users[i].getId());
+		record.putLong(users[i].getDateJoined().getTime());
+		putString(users[i].getName());
+		endRecord();
+	    }
+	    lsn = appended;
+	}
+	awaitDurable(lsn);
+    }
+
+    public void appendFollow(int uid1, int uid2, Date followDate) {
+	appendFollows(new int[] { uid1 }, new int[] { uid2 }, new long[] { followDate.getTime() }, 1);
+    }
+
+    public void appendFollows(int[] follower, int[] followed, long[] dates, int count) {
+	long lsn;
+	synchronized (this) {
+	    checkOpen();
+	    for (int i = 0; i < count; i++) {
+		ensureRecord(17);
+		record.put((byte) FOLLOW);
+		record.putInt(follower[i]);
+		record.putInt(followed[i]);
+		record.putLong(dates[i]);
+		endRecord();
+	    }
+	    lsn = appended;
+	}
+	awaitDurable(lsn);
+    }
+
+    /**
+      awaitDurable() decides what an add has when it returns.
+      With an fsync interval of 0 the records are forced, so they survive a crash of the process and of the machine.
+      Otherwise the records are written to the channel but not forced, so they survive a crash of the process, and a crash of the machine only after the next force() of the background thread.
+    */
+    
+    private void awaitDurable(long lsn) {
+	try {
+	    if (fsyncMillis == 0)
+		sync(lsn);
+	    else
+		synchronized (this) {
+		    if (failure != null)
+			throw failure;
+		    // another add may have written these records already
+		    if (buffer.position() > 0)
+			flushBuffer();
+		}
+	} catch (IOException e) {
+	    throw new UncheckedIOException(e);
+	}
+    }
+
+    /**
+      sync() forces every record appended so far.
+      1) If another thread is in force(), wait for it, its force() may already cover this thread's records.
+      2) Otherwise write buffer to the channel, remember how many records that is and call force() without holding the lock.
+      3) Every thread whose records were appended before the force() is woken up and returns, the others start the next force().
+    */
+
+    public void sync() throws IOException {
+	long lsn;
+	synchronized (this) {
+	    lsn = appended;
+	}
+	sync(lsn);
+    }
+
+    private void sync(long lsn) throws IOException {
+	FileChannel target;
+	long count;
+	synchronized (this) {
+	    while (durable < lsn && syncing)
+		waitForSync();
+	    if (durable >= lsn)
+		return;
+	    if (failure != null)
+		throw failure;
+	    syncing = true;
+	    try {
+		flushBuffer();
+	    } catch (IOException e) {
+		syncing = false;
+		notifyAll();
+		throw e;
+	    }
+	    target = channel;
+	    count = appended;
+	}
+
+	boolean forced = false;
+	try {
+	    target.force(false);
+	    forced = true;
+	} catch (IOException e) {
+	    synchronized (this) {
+		if (failure == null)
+		    failure = e;
+	    }
+	    throw e;
+	} finally {
+	    synchronized (this) {
+		syncing = false;
+		if (forced && count > durable)
+		    durable = count;
+		notifyAll();
+	    }
+	}
+    }
+
+    /**
+      roll() forces the current segment, starts a new one and returns its number.
+      Every record appended before roll() is in an older segment, so after a snapshot those segments can be deleted with deleteSegmentsBefore().
+    */
+
+    public synchronized long roll() throws IOException {
+	while (syncing)
+	    waitForSync();
+	flushBuffer();
+	try {
+	    channel.force(false);
+	} catch (IOException e) {
+	    if (failure == null)
+		failure = e;
+	    throw e;
+	}
+	durable = appended;
+	channel.close();
+	segment++;
+	openSegment();
+	return segment;
+    }
+
+    // deletes every segment with a lower number, which a snapshot taken after roll() has made unnecessary
+    public synchronized void deleteSegmentsBefore(long first) throws IOException {
+	for (long number : segments(directory)) {
+	    if (number < first && number != segment)
+		Files.delete(segmentPath(directory, number));
+	}
+    }
+
+    // forces every record and closes the current segment, the stores must not add anything afterwards
+    public void close() throws IOException {
+	synchronized (this) {
+	    if (closed)
+		return;
+	    closed = true;
+	    notifyAll();
+	}
+	if (flusher != null) {
+	    try {
+		flusher.join();
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+	    }
+	}
+	try {
+	    sync();
+	} finally {
+	    synchronized (this) {
+		channel.close();
+	    }
+	}
+    }
+
+    /**
+      replay() adds every record of the log in directory to the stores, in the order they were appended, and returns the number of adds that were accepted.
+      A store can be null, then its records are skipped, e.g. when only the WeetStore is restored.
+      replay() has to be called before setLog(), otherwise every record would be appended to the log again.
+    */
+
+    public static int replay(Path directory, IWeetStore weets, IUserStore users, IFollowerStore followers) throws IOException {
+	if (!Files.isDirectory(directory))
+	    return 0;
+	long[] segments = segments(directory);
+	int applied = 0;
+	for (int s = 0; s < segments.length; s++) {
+	    ByteBuffer bytes;
+	    try (FileChannel in = FileChannel.open(segmentPath(directory, segments[s]), StandardOpenOption.READ)) {
+		bytes = read(in);
+	    }
+	    int end = validLength(bytes);
+	    if (end < bytes.limit() && s < segments.length - 1)
+		throw new IOException("segment " + segments[s] + " has a damaged record at byte " + end);
+
+	    // every record before end is complete and has the right CRC32
+	    bytes.position(Math.min(HEADER, end));
+	    while (bytes.position() < end) {
+		int length = bytes.getInt();
+		bytes.getInt();
+		int next = bytes.position() + length;
+		int type = bytes.get();
+		if (type == WEET) {
+		    int id = bytes.getInt();
+		    int userId = bytes.getInt();
+		    long date = bytes.getLong();
+		    String message = getString(bytes);
+		    if (weets != null && weets.addWeet(new Weet(id, userId, message, new Date(date))))
+			applied++;
+		} else if (type == USER) {
+		    int id = bytes.getInt();
+		    long date = bytes.getLong();
+		    String name = getString(bytes);
+		    if (users != null && users.addUser(new User(name, id, new Date(date))))
+			applied++;
+		} else if (type == FOLLOW) {
+		    int uid1 = bytes.getInt();
+		    int uid2 = bytes.getInt();
+		    long date = bytes.getLong();
+		    if (followers != null && followers.addFollower(uid1, uid2, new Date(date)))
+			applied++;
+		} else {
+		    throw new IOException("segment " + segments[s] + " has a record of unknown type " + type);
+		}
+		bytes.position(next);
+	    }
+	}
+	return applied;
+    }
+
+    /**
+     Additional methods.
+    */
+
+    // writes the length and CRC32 of the payload in record and the payload to buffer, starting a new segment if this one is full
+    private void endRecord() {
+	record.flip();
+	crc.reset();
+	crc.update(record.array(), 0, record.limit());
+	int length = record.limit();
+	try {
+	    if (buffer.remaining() < 8)
+		flushBuffer();
+	    buffer.putInt(length);
+	    buffer.putInt((int) crc.getValue());
+	    while (record.hasRemaining()) {
+		if (!buffer.hasRemaining())
+		    flushBuffer();
+		int part = Math.min(record.remaining(), buffer.remaining());
+		buffer.put(record.array(), record.position(), part);
+		record.position(record.position() + part);
+	    }
+	    record.clear();
+	    appended++;
+	    segmentSize += 8 + length;
+	    if (segmentSize >= segmentBytes)
+		roll();
+	} catch (IOException e) {
+	    record.clear();
+	    throw new UncheckedIOException(e);
+	}
+    }
+
+    private void checkOpen() {
+	if (closed)
+	    throw new IllegalStateException("WriteAheadLog is closed");
+	if (failure != null)
+	    throw new UncheckedIOException(failure);
+    }
+
+    private void putString(String value) {
+	byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+	ensureRecord(4 + bytes.length);
+	record.putInt(bytes.length);
+	record.put(bytes);
+    }
+
+    private static String getString(ByteBuffer bytes) {
+	byte[] array = new byte[bytes.getInt()];
+	bytes.get(array);
+	return new String(array, StandardCharsets.UTF_8);
+    }
+
+    // doubles record until length more bytes fit
+    private void ensureRecord(int length) {
+	if (record.remaining() >= length)
+	    return;
+	int capacity = record.capacity();
+	while (capacity - record.position() < length)
+	    capacity *= 2;
+	ByteBuffer newRecord = ByteBuffer.allocate(capacity);
+	record.flip();
+	newRecord.put(record);
+	record = newRecord;
+    }
+
+    // after a failed write() buffer is not cleared, so failure stops anything from being appended after the bytes that were lost
+    private void flushBuffer() throws IOException {
+	if (failure != null)
+	    throw failure;
+	buffer.flip();
+	try {
+	    while (buffer.hasRemaining())
+		channel.write(buffer);
+	} catch (IOException e) {
+	    failure = e;
+	    throw e;
+	}
+	buffer.clear();
+    }
+
+    private void openSegment() throws IOException {
+	channel = FileChannel.open(segmentPath(directory, segment), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+	buffer.putInt(Snapshot.MAGIC);
+	buffer.put((byte) Snapshot.VERSION);
+	buffer.put((byte) Snapshot.LOG);
+	buffer.putShort((short) 0);
+	segmentSize = HEADER;
+    }
+
+    // the loop of the background thread, it stops when the log is closed
+    // it waits with wait() instead of being interrupted, because interrupting a thread in force() closes the channel
+    private void flushEvery() {
+	while (true) {
+	    synchronized (this) {
+		long deadline = System.currentTimeMillis() + fsyncMillis;
+		long left = fsyncMillis;
+		while (!closed && left > 0) {
+		    try {
+			wait(left);
+		    } catch (InterruptedException e) {
+			return;
+		    }
+		    left = deadline - System.currentTimeMillis();
+		}
+		if (closed)
+		    return;
+	    }
+	    try {
+		sync();
+	    } catch (InterruptedIOException e) {
+		return;
+	    } catch (IOException e) {
+		synchronized (this) {
+		    if (failure == null)
+			failure = e;
+		}
+		return;
+	    }
+	}
+    }
+
+    private void waitForSync() throws InterruptedIOException {
+	try {
+	    wait();
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new InterruptedIOException("interrupted while waiting for the log to be forced");
+	}
+    }
+
+    // the number of bytes of a segment up to the end of its last complete record with the right CRC32
+    private static int validLength(ByteBuffer bytes) {
+	if (bytes.limit() < HEADER || bytes.getInt(0) != Snapshot.MAGIC || bytes.get(4) != Snapshot.VERSION || bytes.get(5) != Snapshot.LOG)
+	    return 0;
+	CRC32 check = new CRC32();
+	int position = HEADER;
+	while (position + 8 <= bytes.limit()) {
+	    int length = bytes.getInt(position);
+	    if (length <= 0 || length > bytes.limit() - position - 8)
+		break;
+	    ByteBuffer payload = bytes.duplicate();
+	    payload.limit(position + 8 + length);
+	    payload.position(position + 8);
+	    check.reset();
+	    check.update(payload);
+	    if ((int) check.getValue() != bytes.getInt(position + 4))
+		break;
+	    position += 8 + length;
+	}
+	return position;
+    }
+
+    private static ByteBuffer read(FileChannel in) throws IOException {
+	long size = in.size();
+	if (size > Integer.MAX_VALUE)
+	    throw new IOException("segment is too large");
+	ByteBuffer bytes = ByteBuffer.allocate((int) size);
+	while (bytes.hasRemaining()) {
+	    if (in.read(bytes, bytes.position()) < 0)
+		break;
+	}
+	bytes.flip();
+	return bytes;
+    }
+
+    private static Path segmentPath(Path directory, long number) {
+	return directory.resolve(String.format("segment-%016d.log", number));
+    }
+
+    // the numbers of the segments in directory, in order
+    private static long[] segments(Path directory) throws IOException {
+	long[] numbers = new long[16];
+	int count = 0;
+	try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "segment-*.log")) {
+	    for (Path file : files) {
+		String name = file.getFileName().toString();
+		long number;
+		try {
+		    number = Long.parseLong(name.substring(8, name.length() - 4));
+		} catch (NumberFormatException e) {
+		    continue;
+		}
+		if (count == numbers.length)
+		    numbers = Arrays.copyOf(numbers, 2 * count);
+		numbers[count++] = number;
+	    }
+	}
+	numbers = Arrays.copyOf(numbers, count);
+	Arrays.sort(numbers);
+	return numbers;
+    }
+}